@@ -0,0 +1,58 @@
+package com.example.demo.logging;
+
+import java.io.File;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.logging.log4j.Logger;
+import org.apache.logging.log4j.core.LoggerContext;
+import org.apache.logging.log4j.core.config.Configurator;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+// What one INFO line of a cart request costs the request thread, with the synchronous file appender
+// used before (config=sync) and with the async logger of log4j2-spring.xml (config=async). Sample
+// time mode reports percentiles, which is where a slow disk shows up.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Threads(4)
+@Fork(1)
+public class LoggingBenchmark {
+
+    @Param({ "sync", "async" })
+    private String config;
+
+    private LoggerContext context;
+
+    private Logger log;
+
+    @Setup
+    public void setUp() {
+        System.setProperty("benchmark.log.dir", new File("target/jmh-logs").getAbsolutePath());
+        context = Configurator.initialize("logging-benchmark-" + config, "log4j2-benchmark-" + config + ".xml");
+        log = context.getLogger("com.example.demo.controllers.CartController");
+    }
+
+    @TearDown
+    public void tearDown() {
+        Configurator.shutdown(context);
+    }
+
+    @Benchmark
+    public void logCartRequest() {
+        log.info("Adding to Cart with user name {}, and item id {}", "benchmark", 42L);
+    }
+}
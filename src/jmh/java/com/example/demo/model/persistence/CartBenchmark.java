@@ -0,0 +1,60 @@
+package com.example.demo.model.persistence;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+// Changing one line of carts with 1 to 1000 distinct items
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CartBenchmark {
+
+    @Param({ "1", "10", "100", "1000" })
+    private int lines;
+
+    private Item[] items;
+
+    private Cart cart;
+
+    private int next;
+
+    @Setup
+    public void setUp() {
+        items = CartFixtures.items(lines);
+        cart = CartFixtures.cart(items);
+    }
+
+    private Item nextItem() {
+        next = next + 1 == lines ? 0 : next + 1;
+        return items[next];
+    }
+
+    @Benchmark
+    public Cart addItem() {
+        cart.addItem(nextItem(), 1);
+        return cart;
+    }
+
+    // Adding the unit back keeps the cart at the same size from one invocation to the next
+    @Benchmark
+    public Cart removeAndAddItem() {
+        Item item = nextItem();
+        cart.removeItem(item, 1);
+        cart.addItem(item, 1);
+        return cart;
+    }
+}
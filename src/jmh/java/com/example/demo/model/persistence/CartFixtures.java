@@ -0,0 +1,42 @@
+package com.example.demo.model.persistence;
+
+import java.math.BigDecimal;
+
+// Carts and items of a given size for the benchmarks
+final class CartFixtures {
+
+    private CartFixtures() {
+    }
+
+    static Item item(long id) {
+        Item item = new Item();
+        item.setId(id);
+        item.setName("Item " + id);
+        item.setDescription("Description of item " + id);
+        item.setPrice(new BigDecimal("2.99").add(BigDecimal.valueOf(id, 2)));
+        return item;
+    }
+
+    static Item[] items(int count) {
+        Item[] items = new Item[count];
+        for (int i = 0; i < count; i++) {
+            items[i] = item(i);
+        }
+        return items;
+    }
+
+    // A cart of one user holding two units of each of the given items
+    static Cart cart(Item[] items) {
+        User user = new User();
+        user.setId(1);
+        user.setUsername("benchmark");
+        Cart cart = new Cart();
+        cart.setId(1L);
+        cart.setUser(user);
+        user.setCart(cart);
+        for (Item item : items) {
+            cart.addItem(item, 2);
+        }
+        return cart;
+    }
+}
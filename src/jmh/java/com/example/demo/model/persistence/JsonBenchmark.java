@@ -0,0 +1,103 @@
+package com.example.demo.model.persistence;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.example.demo.model.responses.CartSummary;
+import com.example.demo.model.responses.LineSummary;
+import com.example.demo.model.responses.OrderSummary;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+
+// Writing carts and orders of 1 to 1000 distinct items as JSON: the entities as the controllers used
+// to respond with them, the summaries they respond with now, and the summaries with ?expand=items.
+// The summaries are built from the entities in every operation, as the controllers do. The size of
+// each response is printed once per trial.
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class JsonBenchmark {
+
+    @Param({ "1", "10", "100", "1000" })
+    private int lines;
+
+    private ObjectWriter cartWriter;
+
+    private ObjectWriter orderWriter;
+
+    private ObjectWriter cartSummaryWriter;
+
+    private ObjectWriter orderSummaryWriter;
+
+    private Cart cart;
+
+    private UserOrder order;
+
+    private Map<Long, Item> itemsById;
+
+    @Setup
+    public void setUp() throws JsonProcessingException {
+        ObjectMapper objectMapper = new ObjectMapper();
+        cartWriter = objectMapper.writerFor(Cart.class);
+        orderWriter = objectMapper.writerFor(UserOrder.class);
+        cartSummaryWriter = objectMapper.writerFor(CartSummary.class);
+        orderSummaryWriter = objectMapper.writerFor(OrderSummary.class);
+        Item[] items = CartFixtures.items(lines);
+        cart = CartFixtures.cart(items);
+        order = UserOrder.createFromCart(cart);
+        itemsById = new HashMap<>();
+        for (Item item : items) {
+            itemsById.put(item.getId(), item);
+        }
+        System.out.printf("%n%d lines, response bytes: cart %d, cart summary %d, expanded %d, order %d, order summary %d%n",
+                lines, writeCart().length, writeCartSummary().length, writeCartSummaryExpanded().length,
+                writeOrder().length, writeOrderSummary().length);
+    }
+
+    @Benchmark
+    public byte[] writeCart() throws JsonProcessingException {
+        return cartWriter.writeValueAsBytes(cart);
+    }
+
+    @Benchmark
+    public byte[] writeCartSummary() throws JsonProcessingException {
+        return cartSummaryWriter.writeValueAsBytes(CartSummary.of(cart));
+    }
+
+    // The items are taken from a map, standing in for the query ItemExpander makes
+    @Benchmark
+    public byte[] writeCartSummaryExpanded() throws JsonProcessingException {
+        CartSummary summary = CartSummary.of(cart);
+        for (LineSummary line : summary.getItems()) {
+            line.setItem(itemsById.get(line.getItemId()));
+        }
+        return cartSummaryWriter.writeValueAsBytes(summary);
+    }
+
+    @Benchmark
+    public byte[] writeOrder() throws JsonProcessingException {
+        return orderWriter.writeValueAsBytes(order);
+    }
+
+    @Benchmark
+    public byte[] writeOrderSummary() throws JsonProcessingException {
+        return orderSummaryWriter.writeValueAsBytes(OrderSummary.of(order));
+    }
+}
@@ -0,0 +1,113 @@
+package com.example.demo.model.persistence;
+
+import java.io.IOException;
+import java.lang.reflect.Type;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.http.MediaType;
+import org.springframework.http.converter.GenericHttpMessageConverter;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+import org.springframework.http.converter.json.MappingJackson2HttpMessageConverter;
+import org.springframework.mock.http.MockHttpInputMessage;
+import org.springframework.mock.http.MockHttpOutputMessage;
+
+import com.example.demo.json.PrebuiltJsonHttpMessageConverter;
+import com.example.demo.model.requests.ModifyCartRequest;
+import com.example.demo.model.responses.CartSummary;
+import com.example.demo.model.responses.LineSummary;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.module.afterburner.AfterburnerModule;
+
+// Request and response bodies going through an HTTP message converter the way Spring MVC drives it,
+// canRead/canWrite first and then read/write: Spring's Jackson converter, as the application used
+// it before, against PrebuiltJsonHttpMessageConverter, each on an ObjectMapper built like Spring
+// Boot's with and without Afterburner. Run with "-prof gc" for the allocation per operation.
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class JsonConverterBenchmark {
+
+    private static final Type ITEM_LIST = new TypeReference<List<Item>>() {}.getType();
+
+    @Param({ "spring", "prebuilt" })
+    private String converter;
+
+    @Param({ "false", "true" })
+    private boolean afterburner;
+
+    private GenericHttpMessageConverter<Object> messageConverter;
+
+    private CartSummary cartSummary;
+
+    private List<Item> itemPage;
+
+    private byte[] modifyCartRequest;
+
+    @Setup
+    public void setUp() {
+        Jackson2ObjectMapperBuilder builder = Jackson2ObjectMapperBuilder.json();
+        if (afterburner) {
+            builder.modulesToInstall(AfterburnerModule.class);
+        }
+        ObjectMapper objectMapper = builder.build();
+        messageConverter = "spring".equals(converter)
+                ? new MappingJackson2HttpMessageConverter(objectMapper)
+                : new PrebuiltJsonHttpMessageConverter(objectMapper,
+                        Arrays.<Type>asList(ModifyCartRequest.class),
+                        Arrays.asList(CartSummary.class, ITEM_LIST));
+
+        // A cart of 10 items with ?expand=items, and a catalog page of the default size
+        Item[] items = CartFixtures.items(10);
+        cartSummary = CartSummary.of(CartFixtures.cart(items));
+        for (LineSummary line : cartSummary.getItems()) {
+            line.setItem(items[line.getItemId().intValue()]);
+        }
+        itemPage = Arrays.asList(CartFixtures.items(50));
+        modifyCartRequest = "{\"username\":\"benchmark\",\"itemId\":7,\"quantity\":2}".getBytes(StandardCharsets.UTF_8);
+    }
+
+    @Benchmark
+    public MockHttpOutputMessage writeCartSummary() throws IOException {
+        return write(cartSummary, CartSummary.class);
+    }
+
+    @Benchmark
+    public MockHttpOutputMessage writeItemPage() throws IOException {
+        return write(itemPage, ITEM_LIST);
+    }
+
+    @Benchmark
+    public Object readModifyCartRequest() throws IOException {
+        if (!messageConverter.canRead(ModifyCartRequest.class, null, MediaType.APPLICATION_JSON)) {
+            throw new IllegalStateException();
+        }
+        return messageConverter.read(ModifyCartRequest.class, null, new MockHttpInputMessage(modifyCartRequest));
+    }
+
+    private MockHttpOutputMessage write(Object body, Type type) throws IOException {
+        if (!messageConverter.canWrite(type, body.getClass(), MediaType.APPLICATION_JSON)) {
+            throw new IllegalStateException();
+        }
+        MockHttpOutputMessage output = new MockHttpOutputMessage();
+        messageConverter.write(body, type, MediaType.APPLICATION_JSON, output);
+        return output;
+    }
+}
@@ -0,0 +1,45 @@
+package com.example.demo.security;
+
+import java.util.Arrays;
+
+import org.springframework.security.crypto.bcrypt.BCryptPasswordEncoder;
+
+// Measures how long one BCrypt hash takes at each strength on the machine it runs on, to choose
+// security.bcrypt.strength for it: the highest strength whose hash still fits the target time
+// (100 ms by default, the first argument overrides it). It is built with the benchmarks, run it with
+//
+//   mvn -P jmh test-compile exec:exec -Dexec.executable=java -Dexec.classpathScope=test \
+//       -Dexec.args="-classpath %classpath com.example.demo.security.BCryptCalibration [targetMillis]"
+public class BCryptCalibration {
+
+    private static final int MIN_STRENGTH = 8;
+    private static final int MAX_STRENGTH = 14;
+    private static final int ROUNDS = 5;
+
+    public static void main(String[] args) {
+        long targetMillis = args.length > 0 ? Long.parseLong(args[0]) : 100;
+        int chosen = MIN_STRENGTH;
+        for (int strength = MIN_STRENGTH; strength <= MAX_STRENGTH; strength++) {
+            long millis = medianMillis(new BCryptPasswordEncoder(strength));
+            System.out.printf("strength %2d: %5d ms%n", strength, millis);
+            if (millis > targetMillis) {
+                break;
+            }
+            chosen = strength;
+        }
+        System.out.printf("security.bcrypt.strength=%d%n", chosen);
+    }
+
+    private static long medianMillis(BCryptPasswordEncoder encoder) {
+        // The first hash warms up the JIT and is not counted
+        encoder.encode("calibration");
+        long[] millis = new long[ROUNDS];
+        for (int i = 0; i < ROUNDS; i++) {
+            long start = System.nanoTime();
+            encoder.encode("calibration");
+            millis[i] = (System.nanoTime() - start) / 1_000_000;
+        }
+        Arrays.sort(millis);
+        return millis[ROUNDS / 2];
+    }
+}
@@ -0,0 +1,98 @@
+package com.example.demo.security;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.concurrent.TimeUnit;
+
+import javax.servlet.FilterChain;
+import javax.servlet.ServletException;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
+import org.springframework.security.core.Authentication;
+import org.springframework.security.core.context.SecurityContextHolder;
+
+import com.auth0.jwt.JWT;
+import com.auth0.jwt.JWTVerifier;
+import com.auth0.jwt.interfaces.DecodedJWT;
+import com.fasterxml.jackson.module.afterburner.AfterburnerModule;
+
+import static com.auth0.jwt.algorithms.Algorithm.HMAC512;
+import static com.example.demo.security.SecurityConstants.HEADER_STRING;
+import static com.example.demo.security.SecurityConstants.SECRET;
+import static com.example.demo.security.SecurityConstants.TOKEN_PREFIX;
+
+// The JWT work of the two security filters: signing a token at login (JWTAuthenticationFilter) and
+// checking it on every other request (JWTAuthenticationVerificationFilter), once from the
+// VerifiedTokenCache and once with a full signature check as on a cache miss.
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class JwtFilterBenchmark {
+
+    private static final FilterChain NO_OP_CHAIN = (request, response) -> { };
+
+    private JWTAuthenticationFilter authenticationFilter;
+
+    private JWTAuthenticationVerificationFilter verificationFilter;
+
+    private JWTVerifier verifier;
+
+    private Authentication login;
+
+    private MockHttpServletRequest authenticatedRequest;
+
+    private String token;
+
+    @Setup
+    public void setUp() throws IOException, ServletException {
+        // An ObjectMapper built like the application's, see JsonConfiguration
+        authenticationFilter = new JWTAuthenticationFilter(authentication -> authentication,
+                Jackson2ObjectMapperBuilder.json().modulesToInstall(AfterburnerModule.class).build());
+        verificationFilter = new JWTAuthenticationVerificationFilter(authentication -> authentication, new VerifiedTokenCache());
+        verifier = JWT.require(HMAC512(SECRET.getBytes())).build();
+        login = new UsernamePasswordAuthenticationToken(
+                new org.springframework.security.core.userdetails.User("benchmark", "", new ArrayList<>()), null);
+
+        MockHttpServletResponse loginResponse = new MockHttpServletResponse();
+        authenticationFilter.successfulAuthentication(new MockHttpServletRequest(), loginResponse, NO_OP_CHAIN, login);
+        token = loginResponse.getHeader(HEADER_STRING);
+        authenticatedRequest = new MockHttpServletRequest();
+        authenticatedRequest.addHeader(HEADER_STRING, token);
+    }
+
+    @Benchmark
+    public MockHttpServletResponse signToken() throws IOException, ServletException {
+        MockHttpServletResponse response = new MockHttpServletResponse();
+        authenticationFilter.successfulAuthentication(new MockHttpServletRequest(), response, NO_OP_CHAIN, login);
+        return response;
+    }
+
+    @Benchmark
+    public Authentication verifyCachedToken() throws IOException, ServletException {
+        verificationFilter.doFilterInternal(authenticatedRequest, new MockHttpServletResponse(), NO_OP_CHAIN);
+        Authentication authentication = SecurityContextHolder.getContext().getAuthentication();
+        SecurityContextHolder.clearContext();
+        return authentication;
+    }
+
+    @Benchmark
+    public DecodedJWT verifyTokenSignature() {
+        return verifier.verify(token.replace(TOKEN_PREFIX, ""));
+    }
+}
@@ -0,0 +1,275 @@
+package com.example.demo.loadtest;
+
+import com.example.demo.SareetaApplication;
+import com.example.demo.model.persistence.Item;
+import org.HdrHistogram.ConcurrentHistogram;
+import org.HdrHistogram.Histogram;
+import org.springframework.boot.SpringApplication;
+import org.springframework.boot.web.context.WebServerApplicationContext;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+// End-to-end load test. It starts SareetaApplication on a random port, with its in-memory H2
+// database unless another profile is given, seeds it with LoadTestSeeder and then lets a number of virtual users, each logged in
+// as one of the seeded users, send a mix of sign-up, login, browse, add-to-cart and submit-order
+// requests back to back for a fixed time. The latency of every request after the warm-up is
+// recorded per endpoint, and the report (throughput, p50/p99/p99.9/max and errors per endpoint)
+// is printed and written to target/loadtest together with one HdrHistogram .hgrm file per
+// endpoint. Each virtual user waits for its previous response, so latencies are those seen by
+// a closed system and do not account for requests a slow server kept from being sent.
+//
+// Settings, as system properties: loadtest.users, loadtest.items, loadtest.orders (rows seeded),
+// loadtest.threads (virtual users), loadtest.warmup and loadtest.duration (seconds),
+// loadtest.output (report directory), loadtest.profiles (Spring profiles to run the application
+// with, e.g. prod, whose database is then taken from DATABASE_URL).
+public class LoadTest {
+
+    private static final int USERS = Integer.getInteger("loadtest.users", 1_000);
+    private static final int ITEMS = Integer.getInteger("loadtest.items", 5_000);
+    private static final int ORDERS = Integer.getInteger("loadtest.orders", 5_000);
+    private static final int THREADS = Integer.getInteger("loadtest.threads", 8);
+    private static final int WARMUP_SECONDS = Integer.getInteger("loadtest.warmup", 10);
+    private static final int DURATION_SECONDS = Integer.getInteger("loadtest.duration", 60);
+    private static final File OUTPUT = new File(System.getProperty("loadtest.output", "target/loadtest"));
+    private static final String PROFILES = System.getProperty("loadtest.profiles", "");
+
+    private static final String JSON = "application/json";
+
+    // Relative weights of the requests in the mix
+    private static final Object[][] MIX = {
+            { "GET /api/item", 20 },
+            { "GET /api/item/{id}", 15 },
+            { "GET /api/item/search", 10 },
+            { "POST /api/cart/addToCart", 25 },
+            { "GET /api/order/history/{username}", 10 },
+            { "POST /api/order/submit/{username}", 5 },
+            { "POST /login", 10 },
+            { "POST /api/user/create", 5 },
+    };
+
+    private final String baseUrl;
+    private final List<Item> items;
+    private final List<String> usernames;
+    private final Map<String, Histogram> latencies = new ConcurrentHashMap<>();
+    private final Map<String, AtomicLong> errors = new ConcurrentHashMap<>();
+    private volatile boolean recording;
+    private volatile boolean running = true;
+
+    private LoadTest(String baseUrl, List<Item> items, List<String> usernames) {
+        this.baseUrl = baseUrl;
+        this.items = items;
+        this.usernames = usernames;
+        for (Object[] entry : MIX) {
+            latencies.put((String) entry[0], new ConcurrentHistogram(3));
+            errors.put((String) entry[0], new AtomicLong());
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        List<String> arguments = new ArrayList<>(Arrays.asList("--server.port=0", "--logging.level.root=WARN"));
+        if (!PROFILES.isEmpty()) {
+            arguments.add("--spring.profiles.active=" + PROFILES);
+        }
+        ConfigurableApplicationContext context = SpringApplication.run(SareetaApplication.class,
+                arguments.toArray(new String[0]));
+        try {
+            System.out.printf("Profiles %s, database %s%n", Arrays.toString(context.getEnvironment().getActiveProfiles()),
+                    context.getEnvironment().getProperty("spring.datasource.url"));
+            int port = ((WebServerApplicationContext) context).getWebServer().getPort();
+            System.out.printf("Seeding %d items, %d users and %d orders%n", ITEMS, USERS, ORDERS);
+            LoadTestSeeder seeder = new LoadTestSeeder(context);
+            List<Item> items = seeder.seedItems(ITEMS);
+            List<String> usernames = seeder.seedUsers(USERS, items);
+            seeder.seedOrders(ORDERS, usernames);
+
+            LoadTest loadTest = new LoadTest("http://localhost:" + port, items, usernames);
+            loadTest.run();
+            loadTest.report();
+        } finally {
+            context.close();
+        }
+    }
+
+    private void run() throws InterruptedException {
+        ExecutorService virtualUsers = Executors.newFixedThreadPool(THREADS);
+        for (int i = 0; i < THREADS; i++) {
+            String username = usernames.get(i % usernames.size());
+            virtualUsers.execute(() -> {
+                try {
+                    String token = login(username);
+                    while (running) {
+                        token = next(username, token);
+                    }
+                } catch (IOException e) {
+                    throw new IllegalStateException(e);
+                }
+            });
+        }
+        System.out.printf("Warming up for %d s with %d virtual users%n", WARMUP_SECONDS, THREADS);
+        TimeUnit.SECONDS.sleep(WARMUP_SECONDS);
+        recording = true;
+        System.out.printf("Measuring for %d s%n", DURATION_SECONDS);
+        TimeUnit.SECONDS.sleep(DURATION_SECONDS);
+        recording = false;
+        running = false;
+        virtualUsers.shutdown();
+        virtualUsers.awaitTermination(1, TimeUnit.MINUTES);
+    }
+
+    // Sends one request picked from the mix, returns the token to use from then on
+    private String next(String username, String token) throws IOException {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        String endpoint = pick(random);
+        Item item = items.get(random.nextInt(items.size()));
+        switch (endpoint) {
+            case "GET /api/item":
+                send(endpoint, "GET", "/api/item?size=20&after=" + item.getId(), token, null);
+                break;
+            case "GET /api/item/{id}":
+                send(endpoint, "GET", "/api/item/" + item.getId(), token, null);
+                break;
+            case "GET /api/item/search":
+                String word = item.getName().split(" ")[random.nextInt(2)];
+                send(endpoint, "GET", "/api/item/search?size=20&q=" + word.substring(0, 3 + random.nextInt(word.length() - 2)), token, null);
+                break;
+            case "POST /api/cart/addToCart":
+                send(endpoint, "POST", "/api/cart/addToCart", token,
+                        "{\"username\":\"" + username + "\",\"itemId\":" + item.getId() + ",\"quantity\":1}");
+                break;
+            case "GET /api/order/history/{username}":
+                send(endpoint, "GET", "/api/order/history/" + username, token, null);
+                break;
+            case "POST /api/order/submit/{username}":
+                send(endpoint, "POST", "/api/order/submit/" + username, token, null);
+                break;
+            case "POST /login":
+                String refreshed = login(username);
+                return refreshed == null ? token : refreshed;
+            case "POST /api/user/create":
+                send(endpoint, "POST", "/api/user/create", null, "{\"username\":\"signup-" + UUID.randomUUID()
+                        + "\",\"password\":\"" + LoadTestSeeder.PASSWORD + "\",\"confirmPassword\":\"" + LoadTestSeeder.PASSWORD + "\"}");
+                break;
+            default:
+                throw new IllegalStateException(endpoint);
+        }
+        return token;
+    }
+
+    private static String pick(ThreadLocalRandom random) {
+        int total = 0;
+        for (Object[] entry : MIX) {
+            total += (Integer) entry[1];
+        }
+        int roll = random.nextInt(total);
+        for (Object[] entry : MIX) {
+            roll -= (Integer) entry[1];
+            if (roll < 0) {
+                return (String) entry[0];
+            }
+        }
+        throw new IllegalStateException();
+    }
+
+    private String login(String username) throws IOException {
+        HttpURLConnection connection = send("POST /login", "POST", "/login", null,
+                "{\"username\":\"" + username + "\",\"password\":\"" + LoadTestSeeder.PASSWORD + "\"}");
+        return connection.getHeaderField("Authorization");
+    }
+
+    private HttpURLConnection send(String endpoint, String method, String path, String token, String body) throws IOException {
+        long start = System.nanoTime();
+        HttpURLConnection connection = (HttpURLConnection) new URL(baseUrl + path).openConnection();
+        connection.setRequestMethod(method);
+        if (token != null) {
+            connection.setRequestProperty("Authorization", token);
+        }
+        if (body != null) {
+            connection.setDoOutput(true);
+            connection.setRequestProperty("Content-Type", JSON);
+            try (OutputStream out = connection.getOutputStream()) {
+                out.write(body.getBytes(StandardCharsets.UTF_8));
+            }
+        }
+        int status = connection.getResponseCode();
+        // Reading the whole response lets the connection be kept alive for the next request
+        drain(status < 400 ? connection.getInputStream() : connection.getErrorStream());
+        long micros = (System.nanoTime() - start) / 1_000;
+        if (recording) {
+            latencies.get(endpoint).recordValue(micros);
+            if (status >= 400) {
+                errors.get(endpoint).incrementAndGet();
+            }
+        }
+        return connection;
+    }
+
+    private static void drain(InputStream in) throws IOException {
+        if (in == null) {
+            return;
+        }
+        try (InputStream stream = in) {
+            byte[] buffer = new byte[8192];
+            while (stream.read(buffer) >= 0) {
+                // discard
+            }
+        }
+    }
+
+    private void report() throws IOException {
+        OUTPUT.mkdirs();
+        ByteArrayOutputStream text = new ByteArrayOutputStream();
+        PrintStream out = new PrintStream(text, true, "UTF-8");
+        out.printf("%d virtual users, %d s measured after %d s of warm-up, %d items, %d users, %d orders seeded%n%n",
+                THREADS, DURATION_SECONDS, WARMUP_SECONDS, ITEMS, USERS, ORDERS);
+        out.printf("%-36s %9s %9s %9s %9s %9s %9s %7s%n", "endpoint", "requests", "req/s", "p50 ms", "p99 ms", "p99.9 ms", "max ms", "errors");
+        Histogram all = new Histogram(3);
+        for (Map.Entry<String, Histogram> entry : new TreeMap<>(latencies).entrySet()) {
+            Histogram histogram = entry.getValue();
+            all.add(histogram);
+            print(out, entry.getKey(), histogram, errors.get(entry.getKey()).get());
+            String file = entry.getKey().replaceAll("[^A-Za-z]+", "_").replaceAll("^_|_$", "") + ".hgrm";
+            try (PrintStream hgrm = new PrintStream(new FileOutputStream(new File(OUTPUT, file)), false, "UTF-8")) {
+                histogram.outputPercentileDistribution(hgrm, 1_000.0);
+            }
+        }
+        long allErrors = errors.values().stream().mapToLong(AtomicLong::get).sum();
+        print(out, "all", all, allErrors);
+
+        String report = new String(text.toByteArray(), StandardCharsets.UTF_8);
+        System.out.println();
+        System.out.print(report);
+        try (OutputStream file = new FileOutputStream(new File(OUTPUT, "report.txt"))) {
+            file.write(report.getBytes(StandardCharsets.UTF_8));
+        }
+        System.out.printf("%nReport and latency histograms written to %s%n", OUTPUT.getAbsolutePath());
+    }
+
+    private static void print(PrintStream out, String endpoint, Histogram histogram, long errorCount) {
+        out.printf("%-36s %9d %9.1f %9.2f %9.2f %9.2f %9.2f %7d%n", endpoint, histogram.getTotalCount(),
+                histogram.getTotalCount() / (double) DURATION_SECONDS,
+                histogram.getValueAtPercentile(50) / 1_000.0, histogram.getValueAtPercentile(99) / 1_000.0,
+                histogram.getValueAtPercentile(99.9) / 1_000.0, histogram.getMaxValue() / 1_000.0, errorCount);
+    }
+}
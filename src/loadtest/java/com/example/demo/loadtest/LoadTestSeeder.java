@@ -0,0 +1,106 @@
+package com.example.demo.loadtest;
+
+import com.example.demo.model.persistence.Cart;
+import com.example.demo.model.persistence.Item;
+import com.example.demo.model.persistence.User;
+import com.example.demo.model.persistence.UserOrder;
+import com.example.demo.model.persistence.repositories.ItemRepository;
+import com.example.demo.model.persistence.repositories.OrderRepository;
+import com.example.demo.model.persistence.repositories.UserRepository;
+import org.springframework.context.ApplicationContext;
+import org.springframework.security.crypto.bcrypt.BCryptPasswordEncoder;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+// Fills the in-memory database of a started application with items, users (each with a cart
+// holding a few items) and orders, in transactions of BATCH_SIZE rows. All users share one
+// password, so that it is hashed once.
+class LoadTestSeeder {
+
+    static final String PASSWORD = "loadTestPassword";
+
+    private static final int BATCH_SIZE = 500;
+
+    private static final String[] ADJECTIVES = { "Round", "Square", "Blue", "Heavy", "Compact", "Deluxe", "Classic", "Smart" };
+
+    private static final String[] NOUNS = { "Widget", "Gadget", "Lamp", "Chair", "Speaker", "Kettle", "Backpack", "Clock" };
+
+    private final ItemRepository itemRepository;
+
+    private final UserRepository userRepository;
+
+    private final OrderRepository orderRepository;
+
+    private final TransactionTemplate transactionTemplate;
+
+    private final String passwordHash;
+
+    private final Random random = new Random(42);
+
+    LoadTestSeeder(ApplicationContext context) {
+        itemRepository = context.getBean(ItemRepository.class);
+        userRepository = context.getBean(UserRepository.class);
+        orderRepository = context.getBean(OrderRepository.class);
+        transactionTemplate = context.getBean(TransactionTemplate.class);
+        passwordHash = context.getBean(BCryptPasswordEncoder.class).encode(PASSWORD);
+    }
+
+    List<Item> seedItems(int count) {
+        List<Item> items = new ArrayList<>(count);
+        for (int start = 0; start < count; start += BATCH_SIZE) {
+            int end = Math.min(count, start + BATCH_SIZE);
+            List<Item> batch = new ArrayList<>();
+            for (int i = start; i < end; i++) {
+                Item item = new Item();
+                item.setName(ADJECTIVES[i % ADJECTIVES.length] + " " + NOUNS[(i / ADJECTIVES.length) % NOUNS.length] + " " + i);
+                item.setDescription("A " + NOUNS[i % NOUNS.length].toLowerCase() + " for load testing, number " + i);
+                item.setPrice(BigDecimal.valueOf(100 + random.nextInt(10_000), 2));
+                batch.add(item);
+            }
+            items.addAll(transactionTemplate.execute(status -> itemRepository.saveAll(batch)));
+        }
+        return items;
+    }
+
+    // Returns the usernames
+    List<String> seedUsers(int count, List<Item> items) {
+        List<String> usernames = new ArrayList<>(count);
+        for (int start = 0; start < count; start += BATCH_SIZE) {
+            int end = Math.min(count, start + BATCH_SIZE);
+            List<User> batch = new ArrayList<>();
+            for (int i = start; i < end; i++) {
+                User user = new User();
+                user.setUsername("loaduser" + i);
+                user.setPassword(passwordHash);
+                Cart cart = new Cart();
+                cart.setUser(user);
+                cart.addItem(items.get(random.nextInt(items.size())), 1 + random.nextInt(3));
+                user.setCart(cart);
+                batch.add(user);
+                usernames.add(user.getUsername());
+            }
+            transactionTemplate.execute(status -> userRepository.saveAll(batch));
+        }
+        return usernames;
+    }
+
+    // Spreads the orders over the users, each order is a copy of the user's cart
+    void seedOrders(int count, List<String> usernames) {
+        for (int start = 0; start < count; start += BATCH_SIZE) {
+            int from = start;
+            int end = Math.min(count, start + BATCH_SIZE);
+            transactionTemplate.execute(status -> {
+                List<UserOrder> batch = new ArrayList<>();
+                for (int i = from; i < end; i++) {
+                    User user = userRepository.findByUsername(usernames.get(i % usernames.size()));
+                    batch.add(UserOrder.createFromCart(user.getCart()));
+                }
+                return orderRepository.saveAll(batch);
+            });
+        }
+    }
+}
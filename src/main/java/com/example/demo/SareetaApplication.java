@@ -1,12 +1,14 @@
 package com.example.demo;
 
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
 import org.springframework.boot.autoconfigure.domain.EntityScan;
 import org.springframework.boot.autoconfigure.security.servlet.SecurityAutoConfiguration;
 import org.springframework.context.annotation.Bean;
 import org.springframework.data.jpa.repository.config.EnableJpaRepositories;
-import org.springframework.security.crypto.bcrypt.BCryptPasswordEncoder;
+
+import com.example.demo.security.TimedBCryptPasswordEncoder;
 
 // This package contains the main method which runs the application
 
@@ -19,9 +21,11 @@ import org.springframework.security.crypto.bcrypt.BCryptPasswordEncoder;
 public class SareetaApplication {
 
 	// EMG - To implement JWT, the BCryptPasswordEncoder is added
+	// The strength only applies to new hashes, stored hashes keep the strength they were made with.
+	// The encoder also times hashing and checking passwords, see TimedBCryptPasswordEncoder.
 	@Bean
-	public BCryptPasswordEncoder bCryptPasswordEncoder() {
-		return new BCryptPasswordEncoder();
+	public TimedBCryptPasswordEncoder bCryptPasswordEncoder(@Value("${security.bcrypt.strength:10}") int strength) {
+		return new TimedBCryptPasswordEncoder(strength);
 	}
 
 	public static void main(String[] args) {
@@ -0,0 +1,148 @@
+package com.example.demo.catalog;
+
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.event.ContextRefreshedEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.event.TransactionalEventListener;
+
+import com.example.demo.model.persistence.Item;
+import com.example.demo.model.persistence.repositories.ItemRepository;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+// The catalog that item reads are served from, as an immutable CatalogSnapshot. It is loaded from the
+// database once the application context is refreshed, before the web server takes requests, and is
+// replaced by a changed copy once a transaction that changed an Item commits. Readers take the
+// current snapshot without locking, changes are applied one at a time. The CatalogSearchIndex is
+// built from the same snapshots, and changed with them.
+//
+// Every snapshot gets a new entity tag, which starts with the time the application started, so tags
+// handed out before a restart are not mistaken for current ones. The tag is weak: it names the content
+// of the snapshot, not the bytes of a response, which differ between gzip and identity encoding.
+//
+// The events can leave the snapshot stale: listeners of two transactions that changed the same item
+// may run in the other order than the commits, and changes made by another instance or outside of
+// JPA raise no event here. So every catalog.refresh-interval-ms a CatalogMarker of the item table is
+// read, and only when it moved since the last read is the catalog read again, and the snapshot
+// replaced if it differs from what was read. Changes made outside of JPA have to raise the version
+// of the item they change to be seen.
+@Component
+public class Catalog {
+
+	private static final Logger log = LoggerFactory.getLogger(Catalog.class);
+
+	@Autowired
+	private ItemRepository itemRepository;
+
+	@Autowired
+	private ObjectMapper objectMapper;
+
+	@Autowired
+	private CatalogSearchIndex searchIndex;
+
+	@Value("${catalog.refresh-interval-ms:60000}")
+	private long refreshInterval;
+
+	private final String epoch = Long.toString(System.currentTimeMillis(), 36);
+
+	// Guarded by this
+	private long version;
+
+	// The marker of the items the snapshot was last built or checked from, guarded by this
+	private CatalogMarker marker;
+
+	private volatile CatalogSnapshot snapshot = CatalogSnapshot.empty(etag(0));
+
+	private ScheduledExecutorService refresher;
+
+	@PostConstruct
+	public void start() {
+		refresher = Executors.newSingleThreadScheduledExecutor(runnable -> new Thread(runnable, "catalog-refresh"));
+		refresher.scheduleWithFixedDelay(this::scheduledRefresh, refreshInterval, refreshInterval, TimeUnit.MILLISECONDS);
+	}
+
+	@PreDestroy
+	public void stop() {
+		refresher.shutdownNow();
+	}
+
+	public CatalogSnapshot current() {
+		return snapshot;
+	}
+
+	@EventListener(ContextRefreshedEvent.class)
+	public synchronized void rebuild() {
+		// Read first, a change in between only makes the next refresh read the catalog again
+		marker = itemRepository.findCatalogMarker();
+		List<Item> items = itemRepository.findAll();
+		snapshot = CatalogSnapshot.of(etag(++version), items, objectMapper.writerFor(Item.class));
+		searchIndex.rebuild(snapshot.getItems());
+		log.info("Catalog snapshot built with {} items", items.size());
+	}
+
+	@TransactionalEventListener(fallbackExecution = true)
+	public synchronized void onItemChanged(ItemChangedEvent event) {
+		Long itemId = event.getItem().getId();
+		if(event.getType() == ItemChangedEvent.Type.DELETED) {
+			snapshot = snapshot.without(etag(++version), itemId);
+			searchIndex.remove(itemId);
+		} else {
+			snapshot = snapshot.with(etag(++version), event.getItem(), objectMapper.writerFor(Item.class));
+			searchIndex.index(snapshot.getItem(itemId));
+		}
+		log.debug("Catalog snapshot {} after {}", version, event);
+	}
+
+	// Reads the catalog again if its marker moved, and replaces the snapshot if it differs, under a new
+	// tag. The read runs without the lock, so if an event was applied meanwhile the read may predate
+	// it, and it is left to the next refresh.
+	public void refresh() {
+		long readAt;
+		CatalogMarker known;
+		synchronized(this) {
+			readAt = version;
+			known = marker;
+		}
+		CatalogMarker current = itemRepository.findCatalogMarker();
+		if(current != null && current.equals(known)) {
+			return;
+		}
+		List<Item> items = itemRepository.findAll();
+		synchronized(this) {
+			if(version != readAt) {
+				log.debug("Catalog refresh skipped, the snapshot changed while the catalog was read");
+				return;
+			}
+			marker = current;
+			CatalogSnapshot read = CatalogSnapshot.of(snapshot.getETag(), items, objectMapper.writerFor(Item.class));
+			if(!read.hasSameItems(snapshot)) {
+				snapshot = CatalogSnapshot.of(etag(++version), items, objectMapper.writerFor(Item.class));
+				searchIndex.rebuild(snapshot.getItems());
+				log.warn("Catalog snapshot was stale, it was rebuilt with {} items", items.size());
+			}
+		}
+	}
+
+	private void scheduledRefresh() {
+		try {
+			refresh();
+		} catch(RuntimeException e) {
+			log.error("Catalog could not be refreshed", e);
+		}
+	}
+
+	private String etag(long version) {
+		return "W/\"" + epoch + "-" + version + "\"";
+	}
+}
@@ -0,0 +1,44 @@
+package com.example.demo.catalog;
+
+import java.util.Objects;
+
+// What the periodic catalog refresh reads instead of the whole catalog: the number of items, the
+// highest item id and the sum of the item versions, from one aggregate query. An insert raises the
+// highest id, an update raises a version and a delete lowers the count, so a marker that is the same
+// as the last one means no item was changed through JPA since.
+public class CatalogMarker {
+
+	private final long items;
+
+	private final Long lastId;
+
+	private final Long versions;
+
+	public CatalogMarker(Long items, Long lastId, Long versions) {
+		this.items = items;
+		this.lastId = lastId;
+		this.versions = versions;
+	}
+
+	@Override
+	public boolean equals(Object obj) {
+		if(this == obj) {
+			return true;
+		}
+		if(!(obj instanceof CatalogMarker)) {
+			return false;
+		}
+		CatalogMarker other = (CatalogMarker) obj;
+		return items == other.items && Objects.equals(lastId, other.lastId) && Objects.equals(versions, other.versions);
+	}
+
+	@Override
+	public int hashCode() {
+		return Objects.hash(items, lastId, versions);
+	}
+
+	@Override
+	public String toString() {
+		return "CatalogMarker{items=" + items + ", lastId=" + lastId + ", versions=" + versions + "}";
+	}
+}
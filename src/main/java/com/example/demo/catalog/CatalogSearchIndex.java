@@ -0,0 +1,301 @@
+package com.example.demo.catalog;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Component;
+
+import com.example.demo.model.persistence.Item;
+
+// In-memory inverted index over the name and description of every Item. It is kept by Catalog: built
+// from each snapshot the catalog is loaded into, before the web server takes requests, and then kept
+// current one item at a time as the snapshot changes. The items it returns are the snapshot's copies.
+//
+// A query is split into the same lowercase tokens as the indexed text. Every query token has to
+// match (as a whole term or as a prefix of one), and matches are ranked by term weight, where a name
+// counts more than a description, times the inverse document frequency of the term.
+@Component
+public class CatalogSearchIndex {
+
+	private static final Logger log = LoggerFactory.getLogger(CatalogSearchIndex.class);
+
+	static final float NAME_WEIGHT = 3.0f;
+	static final float DESCRIPTION_WEIGHT = 1.0f;
+	// A term that only starts with the query token ranks lower than an exact match
+	static final float PREFIX_FACTOR = 0.5f;
+	// Bounds the work for very short prefixes, which can match a large share of the vocabulary. The
+	// terms kept are the ones whose best item scores highest.
+	static final int MAX_PREFIX_EXPANSIONS = 128;
+
+	private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+	private final NavigableMap<String, Postings> postings = new TreeMap<>();
+
+	private final Map<Long, Item> items = new HashMap<>();
+
+	// item id -> terms of the item, to take an item out of the postings when it changes
+	private final Map<Long, Set<String>> itemTerms = new HashMap<>();
+
+	// Replaces the whole index with the given items, those of a new snapshot
+	void rebuild(Collection<Item> catalog) {
+		lock.writeLock().lock();
+		try {
+			postings.clear();
+			items.clear();
+			itemTerms.clear();
+			catalog.forEach(this::add);
+		} finally {
+			lock.writeLock().unlock();
+		}
+		log.info("Catalog search index built with {} items and {} terms", catalog.size(), postings.size());
+	}
+
+	public void index(Item item) {
+		lock.writeLock().lock();
+		try {
+			removeTerms(item.getId());
+			add(item);
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	public void remove(Long itemId) {
+		lock.writeLock().lock();
+		try {
+			removeTerms(itemId);
+			items.remove(itemId);
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	public int size() {
+		lock.readLock().lock();
+		try {
+			return items.size();
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	// Returns at most limit items matching every token of the query, best match first
+	public List<Item> search(String query, int limit) {
+		List<String> tokens = new ArrayList<>(new LinkedHashSet<>(tokenize(query)));
+		if(tokens.isEmpty() || limit <= 0) {
+			return Collections.emptyList();
+		}
+		lock.readLock().lock();
+		try {
+			List<List<Match>> tokenMatches = new ArrayList<>(tokens.size());
+			for(String token : tokens) {
+				List<Match> matches = expand(token);
+				if(matches.isEmpty()) {
+					return Collections.emptyList();
+				}
+				tokenMatches.add(matches);
+			}
+			// The token with the fewest postings drives the search, the others only filter and add
+			// to the score of its candidates
+			tokenMatches.sort((a, b) -> Integer.compare(postingCount(a), postingCount(b)));
+
+			Map<Long, Float> scores = new HashMap<>();
+			for(Match match : tokenMatches.get(0)) {
+				// With a single token, the best items of each matching term are enough to find the
+				// overall best ones, which keeps very common terms cheap
+				int take = tokenMatches.size() == 1 ? limit : Integer.MAX_VALUE;
+				match.postings.forEachByWeight(take, (itemId, weight) -> scores.merge(itemId, weight * match.factor, Math::max));
+			}
+
+			PriorityQueue<Map.Entry<Long, Float>> best = new PriorityQueue<>(limit + 1, Map.Entry.comparingByValue());
+			candidates:
+			for(Map.Entry<Long, Float> candidate : scores.entrySet()) {
+				float score = candidate.getValue();
+				for(int i = 1; i < tokenMatches.size(); i++) {
+					float tokenScore = 0;
+					for(Match match : tokenMatches.get(i)) {
+						Float weight = match.postings.weights.get(candidate.getKey());
+						if(weight != null) {
+							tokenScore = Math.max(tokenScore, weight * match.factor);
+						}
+					}
+					if(tokenScore == 0) {
+						continue candidates;
+					}
+					score += tokenScore;
+				}
+				best.offer(new HashMap.SimpleImmutableEntry<>(candidate.getKey(), score));
+				if(best.size() > limit) {
+					best.poll();
+				}
+			}
+
+			List<Item> result = new ArrayList<>(best.size());
+			while(!best.isEmpty()) {
+				result.add(items.get(best.poll().getKey()));
+			}
+			Collections.reverse(result);
+			return result;
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	static List<String> tokenize(String text) {
+		List<String> tokens = new ArrayList<>();
+		if(text == null) {
+			return tokens;
+		}
+		String lower = text.toLowerCase(Locale.ROOT);
+		int start = -1;
+		for(int i = 0; i <= lower.length(); i++) {
+			boolean tokenChar = i < lower.length() && Character.isLetterOrDigit(lower.charAt(i));
+			if(tokenChar && start < 0) {
+				start = i;
+			} else if(!tokenChar && start >= 0) {
+				tokens.add(lower.substring(start, i));
+				start = -1;
+			}
+		}
+		return tokens;
+	}
+
+	// The terms a query token matches, with the score factor of each: its inverse document
+	// frequency, lowered when the term only starts with the token. Of more than
+	// MAX_PREFIX_EXPANSIONS terms, the ones with the highest best score are kept.
+	private List<Match> expand(String token) {
+		PriorityQueue<Match> matches = new PriorityQueue<>(Comparator.comparingDouble(Match::bestScore));
+		for(Map.Entry<String, Postings> term : postings.tailMap(token, true).entrySet()) {
+			if(!term.getKey().startsWith(token)) {
+				break;
+			}
+			float idf = (float) Math.log(1.0 + (double) items.size() / term.getValue().weights.size());
+			float factor = term.getKey().length() == token.length() ? idf : idf * PREFIX_FACTOR;
+			matches.offer(new Match(term.getValue(), factor));
+			if(matches.size() > MAX_PREFIX_EXPANSIONS) {
+				matches.poll();
+			}
+		}
+		return new ArrayList<>(matches);
+	}
+
+	private static int postingCount(List<Match> matches) {
+		int count = 0;
+		for(Match match : matches) {
+			count += match.postings.weights.size();
+		}
+		return count;
+	}
+
+	private void add(Item item) {
+		Map<String, Float> weights = new HashMap<>();
+		for(String term : tokenize(item.getName())) {
+			weights.merge(term, NAME_WEIGHT, Float::sum);
+		}
+		for(String term : tokenize(item.getDescription())) {
+			weights.merge(term, DESCRIPTION_WEIGHT, Float::sum);
+		}
+		for(Map.Entry<String, Float> weight : weights.entrySet()) {
+			postings.computeIfAbsent(weight.getKey(), t -> new Postings()).put(item.getId(), weight.getValue());
+		}
+		items.put(item.getId(), item);
+		itemTerms.put(item.getId(), new HashSet<>(weights.keySet()));
+	}
+
+	private void removeTerms(Long itemId) {
+		Set<String> terms = itemTerms.remove(itemId);
+		if(terms == null) {
+			return;
+		}
+		for(String term : terms) {
+			Postings termPostings = postings.get(term);
+			if(termPostings != null) {
+				termPostings.remove(itemId);
+				if(termPostings.weights.isEmpty()) {
+					postings.remove(term);
+				}
+			}
+		}
+	}
+
+	private interface PostingConsumer {
+		void accept(long itemId, float weight);
+	}
+
+	// The items containing one term, with the weight of the term in each of them. A copy ordered by
+	// descending weight is built on first use after a change, so that the top items of a very common
+	// term are read without visiting all of them.
+	private static final class Postings {
+
+		private final Map<Long, Float> weights = new HashMap<>();
+
+		private volatile long[] idsByWeight;
+
+		private void put(Long itemId, float weight) {
+			weights.put(itemId, weight);
+			idsByWeight = null;
+		}
+
+		private void remove(Long itemId) {
+			weights.remove(itemId);
+			idsByWeight = null;
+		}
+
+		private void forEachByWeight(int limit, PostingConsumer consumer) {
+			long[] ids = idsByWeight();
+			for(int i = 0; i < ids.length && i < limit; i++) {
+				consumer.accept(ids[i], weights.get(ids[i]));
+			}
+		}
+
+		private float maxWeight() {
+			long[] ids = idsByWeight();
+			return ids.length == 0 ? 0 : weights.get(ids[0]);
+		}
+
+		private long[] idsByWeight() {
+			long[] ids = idsByWeight;
+			if(ids == null) {
+				ids = weights.entrySet().stream()
+						.sorted(Map.Entry.<Long, Float>comparingByValue().reversed())
+						.mapToLong(Map.Entry::getKey)
+						.toArray();
+				idsByWeight = ids;
+			}
+			return ids;
+		}
+	}
+
+	private static final class Match {
+
+		private final Postings postings;
+
+		private final float factor;
+
+		private Match(Postings postings, float factor) {
+			this.postings = postings;
+			this.factor = factor;
+		}
+
+		// The score of the term in the item it weighs most in
+		private float bestScore() {
+			return postings.maxWeight() * factor;
+		}
+	}
+}
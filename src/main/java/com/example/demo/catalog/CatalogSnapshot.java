@@ -0,0 +1,284 @@
+package com.example.demo.catalog;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.example.demo.model.persistence.Item;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectWriter;
+
+// An immutable copy of the whole catalog, indexed by id and by name, with the JSON of every item
+// written once when the snapshot is made. It is never changed: a change of the catalog makes a new
+// snapshot that shares the JSON of the items it did not touch, see Catalog.
+//
+// The items and JSON handed out are shared by every request that reads this snapshot and must not be
+// modified. The items are copies of the entities, detached from any persistence context.
+public class CatalogSnapshot {
+
+	private static final byte[] EMPTY_LIST = { '[', ']' };
+
+	private final String etag;
+
+	// Ordered by id, the same position in each array
+	private final long[] ids;
+	private final Item[] items;
+	private final byte[][] json;
+
+	// The items of each name as a JSON array, in id order
+	private final Map<String, Page> byName;
+
+	private CatalogSnapshot(String etag, long[] ids, Item[] items, byte[][] json, Map<String, Page> byName) {
+		this.etag = etag;
+		this.ids = ids;
+		this.items = items;
+		this.json = json;
+		this.byName = byName;
+	}
+
+	static CatalogSnapshot empty(String etag) {
+		return new CatalogSnapshot(etag, new long[0], new Item[0], new byte[0][], Collections.emptyMap());
+	}
+
+	static CatalogSnapshot of(String etag, Collection<Item> catalog, ObjectWriter writer) {
+		Item[] items = catalog.stream()
+				.map(CatalogSnapshot::copy)
+				.sorted(Comparator.comparing(Item::getId))
+				.toArray(Item[]::new);
+		long[] ids = new long[items.length];
+		byte[][] json = new byte[items.length][];
+		for(int i = 0; i < items.length; i++) {
+			ids[i] = items[i].getId();
+			json[i] = write(writer, items[i]);
+		}
+		Map<String, List<Integer>> positionsByName = new HashMap<>();
+		for(int i = 0; i < items.length; i++) {
+			positionsByName.computeIfAbsent(items[i].getName(), name -> new ArrayList<>()).add(i);
+		}
+		Map<String, Page> byName = new HashMap<>();
+		positionsByName.forEach((name, positions) -> byName.put(name, new Page(array(json, positions), positions.size(), null)));
+		return new CatalogSnapshot(etag, ids, items, json, byName);
+	}
+
+	// A copy of this snapshot with the given item added, or replacing the item of the same id
+	CatalogSnapshot with(String etag, Item changed, ObjectWriter writer) {
+		Item item = copy(changed);
+		int position = Arrays.binarySearch(ids, item.getId());
+		long[] newIds;
+		Item[] newItems;
+		byte[][] newJson;
+		String previousName = null;
+		if(position >= 0) {
+			previousName = items[position].getName();
+			newIds = ids;
+			newItems = items.clone();
+			newJson = json.clone();
+		} else {
+			position = -position - 1;
+			newIds = insert(ids, position, item.getId());
+			newItems = insert(items, position, item, new Item[items.length + 1]);
+			newJson = insert(json, position, null, new byte[json.length + 1][]);
+		}
+		newItems[position] = item;
+		newJson[position] = write(writer, item);
+		CatalogSnapshot snapshot = new CatalogSnapshot(etag, newIds, newItems, newJson, new HashMap<>(byName));
+		snapshot.reindexName(previousName);
+		snapshot.reindexName(item.getName());
+		return snapshot;
+	}
+
+	// A copy of this snapshot without the item of the given id
+	CatalogSnapshot without(String etag, Long itemId) {
+		int position = Arrays.binarySearch(ids, itemId);
+		if(position < 0) {
+			return new CatalogSnapshot(etag, ids, items, json, byName);
+		}
+		long[] newIds = new long[ids.length - 1];
+		System.arraycopy(ids, 0, newIds, 0, position);
+		System.arraycopy(ids, position + 1, newIds, position, ids.length - position - 1);
+		Item[] newItems = remove(items, position, new Item[items.length - 1]);
+		byte[][] newJson = remove(json, position, new byte[json.length - 1][]);
+		CatalogSnapshot snapshot = new CatalogSnapshot(etag, newIds, newItems, newJson, new HashMap<>(byName));
+		snapshot.reindexName(items[position].getName());
+		return snapshot;
+	}
+
+	// Only called on a snapshot that has not been published yet
+	private void reindexName(String name) {
+		if(name == null) {
+			return;
+		}
+		List<Integer> positions = new ArrayList<>();
+		for(int i = 0; i < items.length; i++) {
+			if(name.equals(items[i].getName())) {
+				positions.add(i);
+			}
+		}
+		if(positions.isEmpty()) {
+			byName.remove(name);
+		} else {
+			byName.put(name, new Page(array(json, positions), positions.size(), null));
+		}
+	}
+
+	// Whether the other snapshot has the same items with the same JSON, whatever its tag
+	boolean hasSameItems(CatalogSnapshot other) {
+		return Arrays.equals(ids, other.ids) && Arrays.deepEquals(json, other.json);
+	}
+
+	// The entity tag of everything read from this snapshot, quotes included
+	public String getETag() {
+		return etag;
+	}
+
+	public int size() {
+		return items.length;
+	}
+
+	// Every item, in id order
+	List<Item> getItems() {
+		return Collections.unmodifiableList(Arrays.asList(items));
+	}
+
+	public Item getItem(long id) {
+		int position = Arrays.binarySearch(ids, id);
+		return position < 0 ? null : items[position];
+	}
+
+	public byte[] getItemJson(long id) {
+		int position = Arrays.binarySearch(ids, id);
+		return position < 0 ? null : json[position];
+	}
+
+	// The items with the given name as a JSON array, null when there is none
+	public Page getItemsByName(String name) {
+		return byName.get(name);
+	}
+
+	// Up to size items with an id greater than after, as a JSON array
+	public Page page(long after, int size) {
+		int from = Arrays.binarySearch(ids, after);
+		from = from < 0 ? -from - 1 : from + 1;
+		int to = Math.min(items.length, from + size);
+		if(from >= to) {
+			return new Page(EMPTY_LIST, 0, null);
+		}
+		Long nextCursor = to < items.length ? ids[to - 1] : null;
+		return new Page(array(json, from, to), to - from, nextCursor);
+	}
+
+	// A number of items written as one JSON array
+	public static class Page {
+
+		private final byte[] json;
+
+		private final int size;
+
+		private final Long nextCursor;
+
+		Page(byte[] json, int size, Long nextCursor) {
+			this.json = json;
+			this.size = size;
+			this.nextCursor = nextCursor;
+		}
+
+		public byte[] getJson() {
+			return json;
+		}
+
+		public int getSize() {
+			return size;
+		}
+
+		// The id to pass as after for the next page, null on the last page
+		public Long getNextCursor() {
+			return nextCursor;
+		}
+	}
+
+	// Whether the value of an If-None-Match header names the given tag. If-None-Match is compared
+	// weakly, so the W/ prefix is ignored on both sides.
+	public static boolean matches(String ifNoneMatch, String etag) {
+		if(ifNoneMatch == null) {
+			return false;
+		}
+		String opaque = opaque(etag);
+		for(String tag : ifNoneMatch.split(",")) {
+			if(opaque(tag.trim()).equals(opaque)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private static String opaque(String tag) {
+		return tag.startsWith("W/") ? tag.substring(2) : tag;
+	}
+
+	private static Item copy(Item item) {
+		Item copy = new Item();
+		copy.setId(item.getId());
+		copy.setName(item.getName());
+		copy.setPrice(item.getPrice());
+		copy.setDescription(item.getDescription());
+		return copy;
+	}
+
+	private static byte[] write(ObjectWriter writer, Item item) {
+		try {
+			return writer.writeValueAsBytes(item);
+		} catch(JsonProcessingException e) {
+			throw new IllegalStateException("Item " + item.getId() + " cannot be written as JSON", e);
+		}
+	}
+
+	private static byte[] array(byte[][] json, List<Integer> positions) {
+		byte[][] elements = new byte[positions.size()][];
+		for(int i = 0; i < elements.length; i++) {
+			elements[i] = json[positions.get(i)];
+		}
+		return array(elements, 0, elements.length);
+	}
+
+	private static byte[] array(byte[][] json, int from, int to) {
+		int length = 1 + to - from;
+		for(int i = from; i < to; i++) {
+			length += json[i].length;
+		}
+		byte[] array = new byte[length];
+		int offset = 0;
+		for(int i = from; i < to; i++) {
+			array[offset++] = (byte) (i == from ? '[' : ',');
+			System.arraycopy(json[i], 0, array, offset, json[i].length);
+			offset += json[i].length;
+		}
+		array[offset] = ']';
+		return array;
+	}
+
+	private static long[] insert(long[] array, int position, long value) {
+		long[] copy = new long[array.length + 1];
+		System.arraycopy(array, 0, copy, 0, position);
+		copy[position] = value;
+		System.arraycopy(array, position, copy, position + 1, array.length - position);
+		return copy;
+	}
+
+	private static <T> T[] insert(T[] array, int position, T value, T[] copy) {
+		System.arraycopy(array, 0, copy, 0, position);
+		copy[position] = value;
+		System.arraycopy(array, position, copy, position + 1, array.length - position);
+		return copy;
+	}
+
+	private static <T> T[] remove(T[] array, int position, T[] copy) {
+		System.arraycopy(array, 0, copy, 0, position);
+		System.arraycopy(array, position + 1, copy, position, array.length - position - 1);
+		return copy;
+	}
+}
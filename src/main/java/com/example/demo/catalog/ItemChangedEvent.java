@@ -0,0 +1,36 @@
+package com.example.demo.catalog;
+
+import com.example.demo.model.persistence.Item;
+
+// Published through the application context whenever an Item is created, updated or deleted through
+// JPA. Listeners that keep derived copies of the catalog (caches, indexes) use it to stay current.
+public class ItemChangedEvent {
+
+	public enum Type {
+		CREATED,
+		UPDATED,
+		DELETED
+	}
+
+	private final Item item;
+
+	private final Type type;
+
+	public ItemChangedEvent(Item item, Type type) {
+		this.item = item;
+		this.type = type;
+	}
+
+	public Item getItem() {
+		return item;
+	}
+
+	public Type getType() {
+		return type;
+	}
+
+	@Override
+	public String toString() {
+		return "ItemChangedEvent{itemId=" + item.getId() + ", type=" + type + "}";
+	}
+}
@@ -0,0 +1,39 @@
+package com.example.demo.catalog;
+
+import javax.persistence.PostPersist;
+import javax.persistence.PostRemove;
+import javax.persistence.PostUpdate;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.ApplicationEventPublisher;
+
+import com.example.demo.model.persistence.Item;
+
+// JPA entity listener of Item. Hibernate obtains it from the Spring bean container, so the
+// publisher is injected as for any other bean.
+public class ItemEntityListener {
+
+	@Autowired
+	private ApplicationEventPublisher eventPublisher;
+
+	@PostPersist
+	public void created(Item item) {
+		publish(item, ItemChangedEvent.Type.CREATED);
+	}
+
+	@PostUpdate
+	public void updated(Item item) {
+		publish(item, ItemChangedEvent.Type.UPDATED);
+	}
+
+	@PostRemove
+	public void deleted(Item item) {
+		publish(item, ItemChangedEvent.Type.DELETED);
+	}
+
+	private void publish(Item item, ItemChangedEvent.Type type) {
+		if(eventPublisher != null) {
+			eventPublisher.publishEvent(new ItemChangedEvent(item, type));
+		}
+	}
+}
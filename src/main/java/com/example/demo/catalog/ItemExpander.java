@@ -0,0 +1,35 @@
+package com.example.demo.catalog;
+
+import java.util.Arrays;
+import java.util.Collection;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import com.example.demo.model.responses.LineSummary;
+
+// Adds the whole Item to the lines of a response when the client asked for it with ?expand=items.
+// The items are taken from the catalog snapshot, and lines of items that are no longer in the
+// catalog are left without one. Other expand values are ignored.
+@Component
+public class ItemExpander {
+
+	public static final String ITEMS = "items";
+
+	@Autowired
+	private Catalog catalog;
+
+	public void expand(String expand, Collection<? extends LineSummary> lines) {
+		if(!expandsItems(expand) || lines.isEmpty()) {
+			return;
+		}
+		CatalogSnapshot snapshot = catalog.current();
+		for(LineSummary line : lines) {
+			line.setItem(snapshot.getItem(line.getItemId()));
+		}
+	}
+
+	static boolean expandsItems(String expand) {
+		return expand != null && Arrays.asList(expand.split(",")).contains(ITEMS);
+	}
+}
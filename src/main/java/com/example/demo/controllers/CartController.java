@@ -1,25 +1,36 @@
 package com.example.demo.controllers;
 
-import java.util.Optional;
-import java.util.stream.IntStream;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.RejectedExecutionException;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.dao.OptimisticLockingFailureException;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.PostMapping;
 import org.springframework.web.bind.annotation.RequestBody;
 import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
 
+import com.example.demo.catalog.Catalog;
+import com.example.demo.catalog.CatalogSnapshot;
+import com.example.demo.catalog.ItemExpander;
+import com.example.demo.logging.RequestEventLogger;
 import com.example.demo.model.persistence.Cart;
 import com.example.demo.model.persistence.Item;
-import com.example.demo.model.persistence.User;
-import com.example.demo.model.persistence.repositories.CartRepository;
-import com.example.demo.model.persistence.repositories.ItemRepository;
-import com.example.demo.model.persistence.repositories.UserRepository;
+import com.example.demo.model.requests.BatchCartRequest;
+import com.example.demo.model.requests.CartOperation;
 import com.example.demo.model.requests.ModifyCartRequest;
+import com.example.demo.model.responses.CartSummary;
+import com.example.demo.security.PrincipalResolver;
+import com.example.demo.security.UserPrincipal;
+import com.example.demo.services.CartUpdateService;
 
 import javax.validation.Valid;
 
@@ -27,57 +38,154 @@ import javax.validation.Valid;
 @RequestMapping("/api/cart")
 public class CartController {
 
-	private	static final Logger log = LoggerFactory.getLogger(UserController.class);
+	private	static final Logger log = LoggerFactory.getLogger(CartController.class);
+
+	private static final String RETRY_AFTER_SECONDS = "1";
 
 	@Autowired
-	private UserRepository userRepository;
+	private PrincipalResolver principalResolver;
 	
 	@Autowired
-	private CartRepository cartRepository;
+	private CartUpdateService cartUpdateService;
 	
 	@Autowired
-	private ItemRepository itemRepository;
+	private Catalog catalog;
+
+	@Autowired
+	private ItemExpander itemExpander;
+
+	@Autowired
+	private RequestEventLogger requestEvents;
 	
 	@PostMapping("/addToCart")
-	public ResponseEntity<Cart> addTocart(@Valid @RequestBody ModifyCartRequest request) {
-		log.info("Adding to Cart with user name {}, and item id {}", request.getUsername(), request.getItemId());
-		User user = userRepository.findByUsername(request.getUsername());
+	public ResponseEntity<CartSummary> addTocart(@Valid @RequestBody ModifyCartRequest request,
+			@RequestParam(required = false) String expand) {
+		long start = System.nanoTime();
+		UserPrincipal user = principalResolver.resolve(request.getUsername());
 		if(user == null) {
+			requestEvents.failure("add_to_cart", request.getUsername(), request.getItemId(), request.getQuantity(), start, "user_not_found");
 			log.error("addToCart request failure. Error with user existence. Cannot add to cart with user name {}, and item id {}", request.getUsername(), request.getItemId());
 			return ResponseEntity.status(HttpStatus.NOT_FOUND).build();
 		}
-		Optional<Item> item = itemRepository.findById(request.getItemId());
-		if(!item.isPresent()) {
+		Item item = catalog.current().getItem(request.getItemId());
+		if(item == null) {
+			requestEvents.failure("add_to_cart", request.getUsername(), request.getItemId(), request.getQuantity(), start, "item_not_found");
 			log.error("addToCart request failure. Error with item existence. Cannot add to cart with user name {}, and item id {}", request.getUsername(), request.getItemId());
 			return ResponseEntity.status(HttpStatus.NOT_FOUND).build();
 		}
-		Cart cart = user.getCart();
-		IntStream.range(0, request.getQuantity())
-			.forEach(i -> cart.addItem(item.get()));
-		cartRepository.save(cart);
-		log.info("addToCart request success. Addition to Cart done with user name {}, and item id {}", request.getUsername(), request.getItemId());
-		return ResponseEntity.ok(cart);
+		Cart cart;
+		try {
+			cart = cartUpdateService.update(user.getCartId(), c -> c.addItem(item, request.getQuantity()));
+		} catch(OptimisticLockingFailureException | DataIntegrityViolationException e) {
+			requestEvents.failure("add_to_cart", request.getUsername(), request.getItemId(), request.getQuantity(), start, "conflict");
+			log.error("addToCart request failure. Error with concurrent cart updates. Cannot add to cart with user name {}, and item id {}", request.getUsername(), request.getItemId());
+			return ResponseEntity.status(HttpStatus.CONFLICT).build();
+		} catch(RejectedExecutionException e) {
+			requestEvents.failure("add_to_cart", request.getUsername(), request.getItemId(), request.getQuantity(), start, "rejected");
+			log.error("addToCart request failure. Error with cart store stopping. Cannot add to cart with user name {}, and item id {}", request.getUsername(), request.getItemId());
+			return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE).header(HttpHeaders.RETRY_AFTER, RETRY_AFTER_SECONDS).build();
+		}
+		CartSummary summary = CartSummary.of(cart);
+		itemExpander.expand(expand, summary.getItems());
+		requestEvents.success("add_to_cart", request.getUsername(), request.getItemId(), request.getQuantity(), start);
+		return ResponseEntity.ok(summary);
 	}
 	
 	@PostMapping("/removeFromCart")
-	public ResponseEntity<Cart> removeFromcart(@Valid @RequestBody ModifyCartRequest request) {
-		log.info("Removing from Cart with user name {}, and item id {}", request.getUsername(), request.getItemId());
-		User user = userRepository.findByUsername(request.getUsername());
+	public ResponseEntity<CartSummary> removeFromcart(@Valid @RequestBody ModifyCartRequest request,
+			@RequestParam(required = false) String expand) {
+		long start = System.nanoTime();
+		UserPrincipal user = principalResolver.resolve(request.getUsername());
 		if(user == null) {
+			requestEvents.failure("remove_from_cart", request.getUsername(), request.getItemId(), request.getQuantity(), start, "user_not_found");
 			log.error("removeFromCart request failure. Error with user existence. Cannot remove from cart with user name {}, and item id {}", request.getUsername(), request.getItemId());
 			return ResponseEntity.status(HttpStatus.NOT_FOUND).build();
 		}
-		Optional<Item> item = itemRepository.findById(request.getItemId());
-		if(!item.isPresent()) {
+		Item item = catalog.current().getItem(request.getItemId());
+		if(item == null) {
+			requestEvents.failure("remove_from_cart", request.getUsername(), request.getItemId(), request.getQuantity(), start, "item_not_found");
 			log.error("removeFromCart request failure. Error with item existence. Cannot remove from cart with user name {}, and item id {}", request.getUsername(), request.getItemId());
 			return ResponseEntity.status(HttpStatus.NOT_FOUND).build();
 		}
-		Cart cart = user.getCart();
-		IntStream.range(0, request.getQuantity())
-			.forEach(i -> cart.removeItem(item.get()));
-		cartRepository.save(cart);
-		log.info("removeFromCart request success. Removal from Cart done with user name {}, and item id {}", request.getUsername(), request.getItemId());
-		return ResponseEntity.ok(cart);
+		Cart cart;
+		try {
+			cart = cartUpdateService.update(user.getCartId(), c -> c.removeItem(item, request.getQuantity()));
+		} catch(OptimisticLockingFailureException | DataIntegrityViolationException e) {
+			requestEvents.failure("remove_from_cart", request.getUsername(), request.getItemId(), request.getQuantity(), start, "conflict");
+			log.error("removeFromCart request failure. Error with concurrent cart updates. Cannot remove from cart with user name {}, and item id {}", request.getUsername(), request.getItemId());
+			return ResponseEntity.status(HttpStatus.CONFLICT).build();
+		} catch(RejectedExecutionException e) {
+			requestEvents.failure("remove_from_cart", request.getUsername(), request.getItemId(), request.getQuantity(), start, "rejected");
+			log.error("removeFromCart request failure. Error with cart store stopping. Cannot remove from cart with user name {}, and item id {}", request.getUsername(), request.getItemId());
+			return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE).header(HttpHeaders.RETRY_AFTER, RETRY_AFTER_SECONDS).build();
+		}
+		CartSummary summary = CartSummary.of(cart);
+		itemExpander.expand(expand, summary.getItems());
+		requestEvents.success("remove_from_cart", request.getUsername(), request.getItemId(), request.getQuantity(), start);
+		return ResponseEntity.ok(summary);
+	}
+
+	// Applies a list of add, remove and set operations to a cart in a single transaction. All the
+	// items are resolved from the catalog snapshot, and the cart is saved once, so an offline client can
+	// replay its changes in one round trip.
+	//
+	// Like the other cart endpoints it answers with the lines and total of the cart, and adds the
+	// whole items to the lines when called with ?expand=items.
+	@PostMapping("/batch")
+	public ResponseEntity<CartSummary> batchUpdate(@Valid @RequestBody BatchCartRequest request,
+			@RequestParam(required = false) String expand) {
+		long start = System.nanoTime();
+		UserPrincipal user = principalResolver.resolve(request.getUsername());
+		if(user == null) {
+			requestEvents.failureCount("update_cart", request.getUsername(), request.getOperations().size(), start, "user_not_found");
+			log.error("batchUpdate request failure. Error with user existence. Cannot update cart with user name {}", request.getUsername());
+			return ResponseEntity.status(HttpStatus.NOT_FOUND).build();
+		}
+		CatalogSnapshot snapshot = catalog.current();
+		Set<Long> unknownItemIds = new TreeSet<>();
+		for(CartOperation operation : request.getOperations()) {
+			if(snapshot.getItem(operation.getItemId()) == null) {
+				unknownItemIds.add(operation.getItemId());
+			}
+		}
+		if(!unknownItemIds.isEmpty()) {
+			requestEvents.failureCount("update_cart", request.getUsername(), request.getOperations().size(), start, "item_not_found");
+			log.error("batchUpdate request failure. Error with item existence. Cannot update cart with user name {}, and item ids {}", request.getUsername(), unknownItemIds);
+			return ResponseEntity.status(HttpStatus.NOT_FOUND).build();
+		}
+		Cart cart;
+		try {
+			cart = cartUpdateService.update(user.getCartId(), c -> apply(c, request, snapshot));
+		} catch(OptimisticLockingFailureException | DataIntegrityViolationException e) {
+			requestEvents.failureCount("update_cart", request.getUsername(), request.getOperations().size(), start, "conflict");
+			log.error("batchUpdate request failure. Error with concurrent cart updates. Cannot update cart with user name {}", request.getUsername());
+			return ResponseEntity.status(HttpStatus.CONFLICT).build();
+		} catch(RejectedExecutionException e) {
+			requestEvents.failureCount("update_cart", request.getUsername(), request.getOperations().size(), start, "rejected");
+			log.error("batchUpdate request failure. Error with cart store stopping. Cannot update cart with user name {}", request.getUsername());
+			return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE).header(HttpHeaders.RETRY_AFTER, RETRY_AFTER_SECONDS).build();
+		}
+		CartSummary summary = CartSummary.of(cart);
+		itemExpander.expand(expand, summary.getItems());
+		requestEvents.successCount("update_cart", request.getUsername(), null, request.getOperations().size(), start);
+		return ResponseEntity.ok(summary);
 	}
-		
+
+	private static void apply(Cart cart, BatchCartRequest request, CatalogSnapshot snapshot) {
+		for(CartOperation operation : request.getOperations()) {
+			Item item = snapshot.getItem(operation.getItemId());
+			switch(operation.getType()) {
+				case ADD:
+					cart.addItem(item, operation.getQuantity());
+					break;
+				case REMOVE:
+					cart.removeItem(item, operation.getQuantity());
+					break;
+				case SET:
+					cart.setQuantity(item, operation.getQuantity());
+					break;
+			}
+		}
+	}
+
 }
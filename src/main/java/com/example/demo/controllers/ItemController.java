@@ -1,47 +1,191 @@
 package com.example.demo.controllers;
 
+import java.io.IOException;
+import java.util.Iterator;
 import java.util.List;
+import java.util.stream.Stream;
+
+import javax.persistence.EntityManager;
+import javax.persistence.PersistenceContext;
+import javax.servlet.http.HttpServletResponse;
 
-import org.slf4j.Logger;
-import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.CacheControl;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
+import org.springframework.transaction.annotation.Transactional;
 import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.RequestHeader;
 import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
 
+import com.example.demo.catalog.Catalog;
+import com.example.demo.catalog.CatalogSearchIndex;
+import com.example.demo.catalog.CatalogSnapshot;
+import com.example.demo.logging.RequestEventLogger;
 import com.example.demo.model.persistence.Item;
 import com.example.demo.model.persistence.repositories.ItemRepository;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.io.SerializedString;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.databind.SerializationFeature;
 
 @RestController
 @RequestMapping("/api/item")
 public class ItemController {
 
-	private	static final Logger log = LoggerFactory.getLogger(UserController.class);
+	public static final String NEXT_CURSOR_HEADER = "X-Next-Cursor";
+
+	public static final String NDJSON_CONTENT_TYPE = "application/x-ndjson";
+
+	// Clients may keep catalog responses but have to revalidate them, see Catalog. They are
+	// private as the API is only served to authenticated users.
+	private static final CacheControl CATALOG_CACHE_CONTROL = CacheControl.noCache().cachePrivate();
 
 	@Autowired
 	private ItemRepository itemRepository;
-	
-	@GetMapping
-	public ResponseEntity<List<Item>> getItems() {
-		log.info("GetItems request success. Items found");
-		return ResponseEntity.ok(itemRepository.findAll());
+
+	@Autowired
+	private CatalogSearchIndex catalogSearchIndex;
+
+	@Autowired
+	private Catalog catalog;
+
+	@Autowired
+	private ObjectMapper objectMapper;
+
+	@Autowired
+	private RequestEventLogger requestEvents;
+
+	@PersistenceContext
+	private EntityManager entityManager;
+
+	@Value("${catalog.page-size.default:50}")
+	private int defaultPageSize;
+
+	@Value("${catalog.page-size.max:500}")
+	private int maxPageSize;
+
+	// Returns one page of the catalog ordered by id. When there are more items, the id to pass as
+	// "after" for the next page is returned in the X-Next-Cursor header.
+	//
+	// This and the lookups by id and by name are served from the catalog snapshot, whose items are
+	// already written as JSON, without going to the database. They carry the entity tag of the
+	// snapshot they were read from, and answer a request whose If-None-Match still names the current
+	// one with 304.
+	@GetMapping(produces = MediaType.APPLICATION_JSON_VALUE)
+	public ResponseEntity<byte[]> getItems(@RequestParam(required = false) Long after,
+			@RequestParam(required = false) Integer size,
+			@RequestHeader(value = HttpHeaders.IF_NONE_MATCH, required = false) String ifNoneMatch) {
+		long start = System.nanoTime();
+		CatalogSnapshot snapshot = catalog.current();
+		if(CatalogSnapshot.matches(ifNoneMatch, snapshot.getETag())) {
+			requestEvents.successCount("get_items", null, after, null, start);
+			return notModified(snapshot);
+		}
+		int pageSize = size == null ? defaultPageSize : Math.max(1, Math.min(size, maxPageSize));
+		CatalogSnapshot.Page page = snapshot.page(after == null ? Long.MIN_VALUE : after, pageSize);
+		requestEvents.successCount("get_items", null, after, page.getSize(), start);
+		if(page.getNextCursor() == null) {
+			return ok(snapshot).body(page.getJson());
+		}
+		return ok(snapshot)
+				.header(NEXT_CURSOR_HEADER, String.valueOf(page.getNextCursor()))
+				.body(page.getJson());
 	}
-	
-	@GetMapping("/{id}")
-	public ResponseEntity<Item> getItemById(@PathVariable Long id) {
-		log.info("Getting item by ID {}", id);
-		return ResponseEntity.of(itemRepository.findById(id));
+
+	// Streams the whole catalog as newline delimited JSON, one item per line, writing each row as it
+	// is read so that memory use does not depend on the catalog size
+	@GetMapping(value = "/export", produces = NDJSON_CONTENT_TYPE)
+	@Transactional(readOnly = true)
+	public void exportItems(HttpServletResponse response) throws IOException {
+		long start = System.nanoTime();
+		response.setContentType(NDJSON_CONTENT_TYPE);
+		ObjectWriter writer = objectMapper.writerFor(Item.class)
+				.without(SerializationFeature.FLUSH_AFTER_WRITE_VALUE);
+		int count = 0;
+		try(Stream<Item> items = itemRepository.streamAll();
+				JsonGenerator generator = objectMapper.getFactory().createGenerator(response.getOutputStream())) {
+			generator.setRootValueSeparator(new SerializedString("\n"));
+			for(Iterator<Item> iterator = items.iterator(); iterator.hasNext(); count++) {
+				Item item = iterator.next();
+				writer.writeValue(generator, item);
+				// Keep the persistence context from growing with the catalog
+				entityManager.detach(item);
+			}
+			if(count > 0) {
+				generator.writeRaw('\n');
+			}
+		}
+		requestEvents.successCount("export_items", null, null, count, start);
 	}
 	
-	@GetMapping("/name/{name}")
-	public ResponseEntity<List<Item>> getItemsByName(@PathVariable String name) {
-		log.info("Getting items by name {}", name);
-		List<Item> items = itemRepository.findByName(name);
-		return items == null || items.isEmpty() ? ResponseEntity.notFound().build()
-				: ResponseEntity.ok(items);
-			
+	// Ranked full-text search over item names and descriptions, every word of the query has to match
+	// a word of the item or the beginning of one, e.g. "rou wid" finds the "Round Widget"
+	@GetMapping("/search")
+	public ResponseEntity<List<Item>> searchItems(@RequestParam("q") String query,
+			@RequestParam(required = false) Integer size) {
+		long start = System.nanoTime();
+		int limit = size == null ? defaultPageSize : Math.max(1, Math.min(size, maxPageSize));
+		List<Item> items = catalogSearchIndex.search(query, limit);
+		requestEvents.successCount("search_items", null, null, items.size(), start);
+		return ResponseEntity.ok(items);
+	}
+
+	@GetMapping(value = "/{id}", produces = MediaType.APPLICATION_JSON_VALUE)
+	public ResponseEntity<byte[]> getItemById(@PathVariable Long id,
+			@RequestHeader(value = HttpHeaders.IF_NONE_MATCH, required = false) String ifNoneMatch) {
+		long start = System.nanoTime();
+		CatalogSnapshot snapshot = catalog.current();
+		if(CatalogSnapshot.matches(ifNoneMatch, snapshot.getETag())) {
+			requestEvents.success("get_item", null, id, null, start);
+			return notModified(snapshot);
+		}
+		byte[] item = snapshot.getItemJson(id);
+		if(item == null) {
+			requestEvents.failure("get_item", null, id, null, start, "item_not_found");
+			return ResponseEntity.notFound().build();
+		}
+		requestEvents.success("get_item", null, id, null, start);
+		return ok(snapshot).body(item);
 	}
 	
+	@GetMapping(value = "/name/{name}", produces = MediaType.APPLICATION_JSON_VALUE)
+	public ResponseEntity<byte[]> getItemsByName(@PathVariable String name,
+			@RequestHeader(value = HttpHeaders.IF_NONE_MATCH, required = false) String ifNoneMatch) {
+		long start = System.nanoTime();
+		CatalogSnapshot snapshot = catalog.current();
+		if(CatalogSnapshot.matches(ifNoneMatch, snapshot.getETag())) {
+			requestEvents.successCount("get_items_by_name", null, null, null, start);
+			return notModified(snapshot);
+		}
+		CatalogSnapshot.Page items = snapshot.getItemsByName(name);
+		if(items == null) {
+			requestEvents.failureCount("get_items_by_name", null, null, start, "item_not_found");
+			return ResponseEntity.notFound().build();
+		}
+		requestEvents.successCount("get_items_by_name", null, null, items.getSize(), start);
+		return ok(snapshot).body(items.getJson());
+	}
+
+	private static ResponseEntity.BodyBuilder ok(CatalogSnapshot snapshot) {
+		return ResponseEntity.ok()
+				.contentType(MediaType.APPLICATION_JSON_UTF8)
+				.eTag(snapshot.getETag())
+				.cacheControl(CATALOG_CACHE_CONTROL);
+	}
+
+	private static <T> ResponseEntity<T> notModified(CatalogSnapshot snapshot) {
+		return ResponseEntity.status(HttpStatus.NOT_MODIFIED)
+				.eTag(snapshot.getETag())
+				.cacheControl(CATALOG_CACHE_CONTROL)
+				.build();
+	}
+
 }
@@ -1,58 +1,174 @@
 package com.example.demo.controllers;
 
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.RejectedExecutionException;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestHeader;
 import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
 
-import com.example.demo.model.persistence.User;
+import com.example.demo.catalog.ItemExpander;
+import com.example.demo.logging.RequestEventLogger;
 import com.example.demo.model.persistence.UserOrder;
 import com.example.demo.model.persistence.repositories.OrderRepository;
-import com.example.demo.model.persistence.repositories.UserRepository;
+import com.example.demo.model.responses.OrderLineSummary;
+import com.example.demo.model.responses.OrderSummary;
+import com.example.demo.security.PrincipalResolver;
+import com.example.demo.security.UserPrincipal;
+import com.example.demo.services.OrderSubmissionService;
 
 @RestController
 @RequestMapping("/api/order")
 public class OrderController {
 
-	private	static final Logger log = LoggerFactory.getLogger(UserController.class);
+	private	static final Logger log = LoggerFactory.getLogger(OrderController.class);
+
+	public static final String IDEMPOTENCY_KEY_HEADER = "Idempotency-Key";
+
+	// Seconds a client is asked to wait before retrying an asynchronous submission that was rejected
+	private static final String RETRY_AFTER_SECONDS = "1";
 
 	@Autowired
-	private UserRepository userRepository;
+	private PrincipalResolver principalResolver;
 	
 	@Autowired
 	private OrderRepository orderRepository;
-	
-	
+
+	@Autowired
+	private OrderSubmissionService orderSubmissionService;
+
+	@Autowired
+	private ItemExpander itemExpander;
+
+	@Autowired
+	private RequestEventLogger requestEvents;
+
+	@Value("${orders.page-size.default:20}")
+	private int defaultPageSize;
+
+	@Value("${orders.page-size.max:100}")
+	private int maxPageSize;
+
+	// The submitted order is returned with its lines and total, and with the whole items in the lines
+	// when called with ?expand=items. The same goes for the asynchronous submission and the history.
 	@PostMapping("/submit/{username}")
-	public ResponseEntity<UserOrder> submit(@PathVariable String username) {
-		log.info("Submitting order with user name {}", username);
-		User user = userRepository.findByUsername(username);
+	public ResponseEntity<OrderSummary> submit(@PathVariable String username,
+			@RequestHeader(value = IDEMPOTENCY_KEY_HEADER, required = false) String idempotencyKey,
+			@RequestParam(required = false) String expand) {
+		long start = System.nanoTime();
+		if(!isValidIdempotencyKey(idempotencyKey)) {
+			requestEvents.failure("submit_order", username, null, null, start, "bad_idempotency_key");
+			log.error("SubmitOrder request failure. Error with idempotency key longer than {} characters. Cannot submit order with user name {}",
+					UserOrder.IDEMPOTENCY_KEY_LENGTH, username);
+			return ResponseEntity.badRequest().build();
+		}
+		UserPrincipal user = principalResolver.resolve(username);
 		if(user == null) {
+			requestEvents.failure("submit_order", username, null, null, start, "user_not_found");
 			log.error("SubmitOrder request failure. Error with user existence. Cannot submit order with user name {}", username);
 			return ResponseEntity.notFound().build();
 		}
-		UserOrder order = UserOrder.createFromCart(user.getCart());
-		orderRepository.save(order);
-		log.info("SubmitOrder request success. Order submitted with user name {}", username);
+		OrderSummary order = OrderSummary.of(orderSubmissionService.submit(user, idempotencyKey));
+		itemExpander.expand(expand, order.getItems());
+		requestEvents.success("submit_order", username, null, null, start);
 		return ResponseEntity.ok(order);
 	}
+
+	// Accepts the order and returns it as PENDING, its items are stored in the background. The order
+	// history shows when it is COMPLETED (or FAILED).
+	@PostMapping("/submit/{username}/async")
+	public ResponseEntity<OrderSummary> submitAsync(@PathVariable String username,
+			@RequestHeader(value = IDEMPOTENCY_KEY_HEADER, required = false) String idempotencyKey,
+			@RequestParam(required = false) String expand) {
+		long start = System.nanoTime();
+		if(!isValidIdempotencyKey(idempotencyKey)) {
+			requestEvents.failure("submit_order_async", username, null, null, start, "bad_idempotency_key");
+			log.error("SubmitOrderAsync request failure. Error with idempotency key longer than {} characters. Cannot submit order with user name {}",
+					UserOrder.IDEMPOTENCY_KEY_LENGTH, username);
+			return ResponseEntity.badRequest().build();
+		}
+		UserPrincipal user = principalResolver.resolve(username);
+		if(user == null) {
+			requestEvents.failure("submit_order_async", username, null, null, start, "user_not_found");
+			log.error("SubmitOrderAsync request failure. Error with user existence. Cannot submit order with user name {}", username);
+			return ResponseEntity.notFound().build();
+		}
+		UserOrder order;
+		try {
+			order = orderSubmissionService.submitAsync(user, idempotencyKey);
+		} catch(RejectedExecutionException e) {
+			requestEvents.failure("submit_order_async", username, null, null, start, "rejected");
+			log.error("SubmitOrderAsync request failure. Error with order workers saturated. Cannot submit order with user name {}", username);
+			return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE).header(HttpHeaders.RETRY_AFTER, RETRY_AFTER_SECONDS).build();
+		}
+		OrderSummary summary = OrderSummary.of(order);
+		itemExpander.expand(expand, summary.getItems());
+		requestEvents.success("submit_order_async", username, null, null, start);
+		return ResponseEntity.accepted().body(summary);
+	}
 	
+	// Returns one page of the order history, newest first. When there are older orders, the id to
+	// pass as "before" for the next page is returned in the X-Next-Cursor header.
 	@GetMapping("/history/{username}")
-	public ResponseEntity<List<UserOrder>> getOrdersForUser(@PathVariable String username) {
-		log.info("Getting orders for user name {}", username);
-		User user = userRepository.findByUsername(username);
+	public ResponseEntity<List<OrderSummary>> getOrdersForUser(@PathVariable String username,
+			@RequestParam(required = false) Long before, @RequestParam(required = false) Integer size,
+			@RequestParam(required = false) String expand) {
+		long start = System.nanoTime();
+		UserPrincipal user = principalResolver.resolve(username);
 		if(user == null) {
+			requestEvents.failure("get_order_history", username, null, null, start, "user_not_found");
 			log.error("GetOrdersForUser request failure. Error with user existence. Cannot find order history for user name {}", username);
 			return ResponseEntity.notFound().build();
 		}
-		log.info("GetOrdersForUser request success. Order history found for user name {}", username);
-		return ResponseEntity.ok(orderRepository.findByUser(user));
+		int pageSize = size == null ? defaultPageSize : Math.max(1, Math.min(size, maxPageSize));
+		// One extra row tells whether there is a next page without a count query
+		List<OrderSummary> orders = orderRepository.findSummariesByUserId(user.getId(), before == null ? Long.MAX_VALUE : before,
+				PageRequest.of(0, pageSize + 1));
+		String nextCursor = null;
+		if(orders.size() > pageSize) {
+			orders = orders.subList(0, pageSize);
+			nextCursor = String.valueOf(orders.get(pageSize - 1).getId());
+		}
+		addLines(orders, expand);
+		requestEvents.successCount("get_order_history", username, null, orders.size(), start);
+		ResponseEntity.BodyBuilder response = ResponseEntity.ok();
+		if(nextCursor != null) {
+			response.header(ItemController.NEXT_CURSOR_HEADER, nextCursor);
+		}
+		return response.body(orders);
+	}
+
+	private void addLines(List<OrderSummary> orders, String expand) {
+		if(orders.isEmpty()) {
+			return;
+		}
+		Map<Long, OrderSummary> ordersById = new HashMap<>();
+		for(OrderSummary order : orders) {
+			ordersById.put(order.getId(), order);
+		}
+		List<OrderLineSummary> lines = orderRepository.findLineSummariesByOrderIds(ordersById.keySet());
+		for(OrderLineSummary line : lines) {
+			ordersById.get(line.getOrderId()).getItems().add(line);
+		}
+		itemExpander.expand(expand, lines);
+	}
+
+	// A key that does not fit the column would fail the insert with a 500
+	private static boolean isValidIdempotencyKey(String idempotencyKey) {
+		return idempotencyKey == null || idempotencyKey.length() <= UserOrder.IDEMPOTENCY_KEY_LENGTH;
 	}
 }
@@ -1,10 +1,20 @@
 package com.example.demo.controllers;
 
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.boot.autoconfigure.task.TaskExecutionAutoConfiguration;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
-import org.springframework.security.crypto.bcrypt.BCryptPasswordEncoder;
+import org.springframework.transaction.support.TransactionTemplate;
 import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.PostMapping;
@@ -12,11 +22,13 @@ import org.springframework.web.bind.annotation.RequestBody;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RestController;
 
+import com.example.demo.logging.RequestEventLogger;
 import com.example.demo.model.persistence.Cart;
 import com.example.demo.model.persistence.User;
 import com.example.demo.model.persistence.repositories.CartRepository;
 import com.example.demo.model.persistence.repositories.UserRepository;
 import com.example.demo.model.requests.CreateUserRequest;
+import com.example.demo.services.PasswordHashingService;
 
 import javax.validation.Valid;
 
@@ -33,42 +45,91 @@ public class UserController {
 	private CartRepository cartRepository;
 
 	@Autowired
-	private BCryptPasswordEncoder bCryptPasswordEncoder;
+	private PasswordHashingService passwordHashingService;
+
+	@Autowired
+	private TransactionTemplate transactionTemplate;
+
+	@Autowired
+	private RequestEventLogger requestEvents;
+
+	// Stores new users once their password is hashed, so that waiting for the database does not hold
+	// the hashing workers
+	@Autowired
+	@Qualifier(TaskExecutionAutoConfiguration.APPLICATION_TASK_EXECUTOR_BEAN_NAME)
+	private Executor taskExecutor;
+
+	// Seconds a client is asked to wait before retrying a sign-up that was rejected
+	private static final String RETRY_AFTER_SECONDS = "1";
 
 	@GetMapping("/id/{id}")
 	public ResponseEntity<User> findById(@PathVariable Long id) {
-		log.info("Finding user by ID {}", id);
-		return ResponseEntity.of(userRepository.findById(id));
+		long start = System.nanoTime();
+		Optional<User> user = userRepository.findById(id);
+		if(!user.isPresent()) {
+			requestEvents.failure("find_user", null, null, null, start, "user_not_found");
+			return ResponseEntity.notFound().build();
+		}
+		requestEvents.success("find_user", user.get().getUsername(), null, null, start);
+		return ResponseEntity.ok(user.get());
 	}
 	
 	@GetMapping("/{username}")
 	public ResponseEntity<User> findByUserName(@PathVariable String username) {
-		log.info("Finding user by user name {}", username);
+		long start = System.nanoTime();
 		User user = userRepository.findByUsername(username);
-		return user == null ? ResponseEntity.notFound().build() : ResponseEntity.ok(user);
+		if(user == null) {
+			requestEvents.failure("find_user", username, null, null, start, "user_not_found");
+			return ResponseEntity.notFound().build();
+		}
+		requestEvents.success("find_user", username, null, null, start);
+		return ResponseEntity.ok(user);
 	}
 	
+	// The password is checked before anything is stored, and hashed on the PasswordHashingService
+	// pool. The request thread is released while the hash is computed, and the user is stored on the
+	// application's task executor. A username that is already taken is answered with 409.
 	@PostMapping("/create")
-	public ResponseEntity<User> createUser(@Valid @RequestBody CreateUserRequest createUserRequest) {
-		log.info("Creating user with user name {}", createUserRequest.getUsername());
-		User user = new User();
-		user.setUsername(createUserRequest.getUsername());
-		Cart cart = new Cart();
-		cartRepository.save(cart);
-		user.setCart(cart);
+	public CompletableFuture<ResponseEntity<User>> createUser(@Valid @RequestBody CreateUserRequest createUserRequest) {
+		long start = System.nanoTime();
 
 		// EMG - To implement JWT, some basic password validations are added, and then the
         // password is encoded
 		if(createUserRequest.getPassword().length() < 7 ||
 			!createUserRequest.getPassword().equals(createUserRequest.getConfirmPassword())) {
+			requestEvents.failure("create_user", createUserRequest.getUsername(), null, null, start, "bad_password");
 			log.error("CreateUser request failure. Error with user password. Cannot create user with user name {}", createUserRequest.getUsername());
-			return ResponseEntity.badRequest().build();
+			return CompletableFuture.completedFuture(ResponseEntity.badRequest().build());
 		}
-		user.setPassword(bCryptPasswordEncoder.encode(createUserRequest.getPassword()));
-
-		userRepository.save(user);
-		log.info("CreateUser request success. User created with user name {}", createUserRequest.getUsername());
-		return ResponseEntity.ok(user);
+		CompletableFuture<String> hash;
+		try {
+			hash = passwordHashingService.encode(createUserRequest.getPassword());
+		} catch(RejectedExecutionException e) {
+			requestEvents.failure("create_user", createUserRequest.getUsername(), null, null, start, "rejected");
+			log.error("CreateUser request failure. Error with password hashing saturated. Cannot create user with user name {}", createUserRequest.getUsername());
+			return CompletableFuture.completedFuture(ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE)
+					.header(HttpHeaders.RETRY_AFTER, RETRY_AFTER_SECONDS).<User>build());
+		}
+		// The cart and the user are stored together, outside of the request's persistence context
+		return hash.thenApplyAsync(encodedPassword -> {
+			try {
+				return transactionTemplate.execute(status -> {
+					User user = new User();
+					user.setUsername(createUserRequest.getUsername());
+					user.setPassword(encodedPassword);
+					Cart cart = new Cart();
+					cartRepository.save(cart);
+					user.setCart(cart);
+					userRepository.save(user);
+					requestEvents.success("create_user", createUserRequest.getUsername(), null, null, start);
+					return ResponseEntity.ok(user);
+				});
+			} catch(DataIntegrityViolationException e) {
+				requestEvents.failure("create_user", createUserRequest.getUsername(), null, null, start, "username_taken");
+				log.error("CreateUser request failure. Error with user name already taken. Cannot create user with user name {}", createUserRequest.getUsername());
+				return ResponseEntity.status(HttpStatus.CONFLICT).<User>build();
+			}
+		}, taskExecutor);
 	}
 	
 }
@@ -0,0 +1,55 @@
+package com.example.demo.json;
+
+import java.lang.reflect.Type;
+import java.util.Arrays;
+import java.util.List;
+
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import com.example.demo.model.persistence.Item;
+import com.example.demo.model.persistence.User;
+import com.example.demo.model.requests.BatchCartRequest;
+import com.example.demo.model.requests.CreateUserRequest;
+import com.example.demo.model.requests.ModifyCartRequest;
+import com.example.demo.model.responses.CartSummary;
+import com.example.demo.model.responses.OrderSummary;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.Module;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.module.afterburner.AfterburnerModule;
+
+// The JSON setup of the REST layer. Spring Boot registers every Module bean with the one ObjectMapper
+// it configures, and puts HttpMessageConverter beans ahead of its own converters, so the request and
+// response bodies listed here are read and written by readers and writers built once at startup.
+// Any other body still goes through Spring's Jackson converter, on the same ObjectMapper.
+@Configuration
+public class JsonConfiguration {
+
+	// Request bodies of the cart, order and user endpoints
+	static final List<Type> PREBUILT_READ_TYPES = Arrays.asList(
+			ModifyCartRequest.class,
+			BatchCartRequest.class,
+			CreateUserRequest.class);
+
+	// Response bodies of the cart, order, item and user endpoints
+	static final List<Type> PREBUILT_WRITE_TYPES = Arrays.asList(
+			CartSummary.class,
+			OrderSummary.class,
+			new TypeReference<List<OrderSummary>>() {}.getType(),
+			new TypeReference<List<Item>>() {}.getType(),
+			User.class);
+
+	// Replaces the reflective getter, setter and field calls of bean (de)serializers with generated
+	// bytecode. A property the generated code cannot reach, e.g. a private field without accessors,
+	// keeps being read or written through reflection.
+	@Bean
+	public Module afterburnerModule() {
+		return new AfterburnerModule();
+	}
+
+	@Bean
+	public PrebuiltJsonHttpMessageConverter prebuiltJsonHttpMessageConverter(ObjectMapper objectMapper) {
+		return new PrebuiltJsonHttpMessageConverter(objectMapper, PREBUILT_READ_TYPES, PREBUILT_WRITE_TYPES);
+	}
+}
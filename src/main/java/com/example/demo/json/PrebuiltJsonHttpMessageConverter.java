@@ -0,0 +1,98 @@
+package com.example.demo.json;
+
+import java.io.IOException;
+import java.lang.reflect.Type;
+import java.nio.charset.StandardCharsets;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.springframework.http.HttpInputMessage;
+import org.springframework.http.HttpOutputMessage;
+import org.springframework.http.MediaType;
+import org.springframework.http.converter.AbstractGenericHttpMessageConverter;
+import org.springframework.http.converter.HttpMessageNotReadableException;
+import org.springframework.http.converter.HttpMessageNotWritableException;
+
+import com.fasterxml.jackson.core.JsonEncoding;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.fasterxml.jackson.databind.ObjectWriter;
+
+// Reads and writes a fixed set of JSON bodies with an ObjectReader or ObjectWriter built for each type
+// when the application starts. Spring's Jackson converter asks the ObjectMapper whether it can handle
+// the type, resolves it and creates a new writer on every request; here a body type is looked up in a
+// map, and the reader or writer found there already holds the (de)serializer of its root type.
+// Types that were not listed are left to the next converter.
+public class PrebuiltJsonHttpMessageConverter extends AbstractGenericHttpMessageConverter<Object> {
+
+	private final Map<Type, ObjectReader> readers = new HashMap<>();
+
+	private final Map<Type, ObjectWriter> writers = new HashMap<>();
+
+	public PrebuiltJsonHttpMessageConverter(ObjectMapper objectMapper, Collection<Type> readTypes,
+			Collection<Type> writeTypes) {
+		super(MediaType.APPLICATION_JSON, new MediaType("application", "*+json"));
+		setDefaultCharset(StandardCharsets.UTF_8);
+		for(Type type : readTypes) {
+			readers.put(type, objectMapper.readerFor(objectMapper.constructType(type)));
+		}
+		for(Type type : writeTypes) {
+			writers.put(type, objectMapper.writerFor(objectMapper.constructType(type)));
+		}
+	}
+
+	@Override
+	protected boolean supports(Class<?> clazz) {
+		return readers.containsKey(clazz) || writers.containsKey(clazz);
+	}
+
+	@Override
+	public boolean canRead(Class<?> clazz, MediaType mediaType) {
+		return readers.containsKey(clazz) && canRead(mediaType);
+	}
+
+	@Override
+	public boolean canRead(Type type, Class<?> contextClass, MediaType mediaType) {
+		return readers.containsKey(type) && canRead(mediaType);
+	}
+
+	@Override
+	public boolean canWrite(Class<?> clazz, MediaType mediaType) {
+		return writers.containsKey(clazz) && canWrite(mediaType);
+	}
+
+	@Override
+	public boolean canWrite(Type type, Class<?> clazz, MediaType mediaType) {
+		return writers.containsKey(type != null ? type : clazz) && canWrite(mediaType);
+	}
+
+	@Override
+	protected Object readInternal(Class<?> clazz, HttpInputMessage inputMessage) throws IOException {
+		return read(clazz, null, inputMessage);
+	}
+
+	@Override
+	public Object read(Type type, Class<?> contextClass, HttpInputMessage inputMessage) throws IOException {
+		try {
+			return readers.get(type).readValue(inputMessage.getBody());
+		} catch(JsonProcessingException e) {
+			throw new HttpMessageNotReadableException("JSON parse error: " + e.getOriginalMessage(), e, inputMessage);
+		}
+	}
+
+	@Override
+	protected void writeInternal(Object object, Type type, HttpOutputMessage outputMessage) throws IOException {
+		ObjectWriter writer = writers.get(type != null ? type : object.getClass());
+		// The generator is flushed but not closed, the response stream belongs to the container
+		try {
+			JsonGenerator generator = writer.getFactory().createGenerator(outputMessage.getBody(), JsonEncoding.UTF8);
+			writer.writeValue(generator, object);
+			generator.flush();
+		} catch(JsonProcessingException e) {
+			throw new HttpMessageNotWritableException("Could not write JSON: " + e.getOriginalMessage(), e);
+		}
+	}
+}
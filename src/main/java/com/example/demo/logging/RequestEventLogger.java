@@ -0,0 +1,117 @@
+package com.example.demo.logging;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ThreadLocalRandom;
+
+import javax.annotation.PostConstruct;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.apache.logging.log4j.util.Unbox;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import com.fasterxml.jackson.core.util.BufferRecyclers;
+
+// Writes one single-line JSON object per handled request to the "request-events" logger, which
+// log4j2-spring.xml sends to logs/events.log only. Every event has the same fields: ts, event, user,
+// item, qty, cursor, count, latencyUs and outcome, plus sampleRate when it was sampled. Events about one
+// item fill item and qty, events that return or apply a number of things fill count, and cursor is
+// the position a catalog page was read from. A field that does not apply is null.
+//
+// Successful requests of the events listed in request-events.sampled are only kept at
+// request-events.sample-rate, so a count of them has to be divided by the sampleRate field.
+// Failures are always written, at WARN, which the async loggers never discard.
+//
+// Events are logged as parameterized messages and the ts field comes from the layout, so like the
+// other log lines they are written without garbage (see log4j2.component.properties).
+@Component
+public class RequestEventLogger {
+
+	public static final String LOGGER_NAME = "request-events";
+
+	public static final String SUCCESS = "success";
+
+	private static final String EVENT = "\"event\":\"{}\",\"user\":{},\"item\":{},\"qty\":{},\"cursor\":{},\"count\":{},"
+			+ "\"latencyUs\":{},\"outcome\":\"{}\"";
+
+	private static final String SAMPLED_EVENT = EVENT + ",\"sampleRate\":{}";
+
+	// The quoted user of the event being logged, the message is formatted before log returns
+	private static final ThreadLocal<StringBuilder> QUOTED = ThreadLocal.withInitial(() -> new StringBuilder(64));
+
+	private Logger log = LogManager.getLogger(LOGGER_NAME);
+
+	@Value("${request-events.sample-rate:1.0}")
+	private double sampleRate = 1.0;
+
+	@Value("${request-events.sampled:}")
+	private String[] sampled = new String[0];
+
+	private Set<String> sampledEvents = Collections.emptySet();
+
+	@PostConstruct
+	public void init() {
+		sampledEvents = new HashSet<>(Arrays.asList(sampled));
+	}
+
+	// A request about one item
+	public void success(String event, String user, Long item, Integer qty, long startNanos) {
+		if(isSampledIn(event) && log.isInfoEnabled()) {
+			info(event, user, item, qty, null, null, startNanos);
+		}
+	}
+
+	public void failure(String event, String user, Long item, Integer qty, long startNanos, String outcome) {
+		warn(event, user, item, qty, null, startNanos, outcome);
+	}
+
+	// A request that returned or applied count things, and for a catalog page read from cursor
+	public void successCount(String event, String user, Long cursor, Integer count, long startNanos) {
+		if(isSampledIn(event) && log.isInfoEnabled()) {
+			info(event, user, null, null, cursor, count, startNanos);
+		}
+	}
+
+	public void failureCount(String event, String user, Integer count, long startNanos, String outcome) {
+		warn(event, user, null, null, count, startNanos, outcome);
+	}
+
+	boolean isSampledIn(String event) {
+		return !sampledEvents.contains(event) || ThreadLocalRandom.current().nextDouble() < sampleRate;
+	}
+
+	private void info(String event, String user, Long item, Integer qty, Long cursor, Integer count, long startNanos) {
+		if(sampledEvents.contains(event) && sampleRate < 1.0) {
+			log.info(SAMPLED_EVENT, event, quoted(user), item, qty, cursor, count, latencyMicros(startNanos), SUCCESS,
+					Unbox.box(sampleRate));
+		} else {
+			log.info(EVENT, event, quoted(user), item, qty, cursor, count, latencyMicros(startNanos), SUCCESS);
+		}
+	}
+
+	private void warn(String event, String user, Long item, Integer qty, Integer count, long startNanos, String outcome) {
+		if(log.isWarnEnabled()) {
+			log.warn(EVENT, event, quoted(user), item, qty, null, count, latencyMicros(startNanos), outcome);
+		}
+	}
+
+	private static CharSequence latencyMicros(long startNanos) {
+		return Unbox.box((System.nanoTime() - startNanos) / 1_000);
+	}
+
+	// The value as a JSON string, or null
+	private static CharSequence quoted(String value) {
+		if(value == null) {
+			return "null";
+		}
+		StringBuilder json = QUOTED.get();
+		json.setLength(0);
+		json.append('"');
+		BufferRecyclers.getJsonStringEncoder().quoteAsString(value, json);
+		return json.append('"');
+	}
+}
@@ -0,0 +1,92 @@
+package com.example.demo.metrics;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.aspectj.lang.ProceedingJoinPoint;
+import org.aspectj.lang.annotation.Around;
+import org.aspectj.lang.annotation.Aspect;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.repository.Repository;
+import org.springframework.stereotype.Component;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+
+// Times every call to a Spring Data repository as "repository.invocations", tagged with the
+// repository interface, the method and the exception it threw (or "none"). The timers publish
+// histogram buckets, so percentiles can be computed over all instances at query time.
+//
+// Each timer is registered once and then taken from a map, so a call does not build and look up its
+// timer in the registry again.
+@Aspect
+@Component
+public class RepositoryMetricsAspect {
+
+	static final String METRIC_NAME = "repository.invocations";
+
+	private static final String REPOSITORIES_PACKAGE = "com.example.demo.model.persistence.repositories";
+
+	@Autowired
+	private MeterRegistry meterRegistry;
+
+	// implementation class -> method name -> the timers of that method
+	private final Map<Class<?>, Map<String, MethodTimers>> timers = new ConcurrentHashMap<>();
+
+	@Around("execution(* org.springframework.data.repository.Repository+.*(..))")
+	public Object time(ProceedingJoinPoint joinPoint) throws Throwable {
+		Timer.Sample sample = Timer.start(meterRegistry);
+		Class<?> target = joinPoint.getTarget().getClass();
+		MethodTimers methodTimers = timers.computeIfAbsent(target, type -> new ConcurrentHashMap<>())
+				.computeIfAbsent(joinPoint.getSignature().getName(), method -> new MethodTimers(repositoryName(target), method));
+		try {
+			Object result = joinPoint.proceed();
+			sample.stop(methodTimers.success);
+			return result;
+		} catch(Throwable e) {
+			sample.stop(methodTimers.failure(e.getClass()));
+			throw e;
+		}
+	}
+
+	private Timer timer(String repository, String method, String exception) {
+		return Timer.builder(METRIC_NAME)
+				.tag("repository", repository)
+				.tag("method", method)
+				.tag("exception", exception)
+				.publishPercentileHistogram()
+				.register(meterRegistry);
+	}
+
+	private static String repositoryName(Class<?> type) {
+		for(Class<?> candidate : type.getInterfaces()) {
+			if(Repository.class.isAssignableFrom(candidate) && candidate.getName().startsWith(REPOSITORIES_PACKAGE)) {
+				return candidate.getSimpleName();
+			}
+		}
+		return type.getSimpleName();
+	}
+
+	// The timer of the calls of one repository method that returned, and those of the calls that threw,
+	// one per exception class
+	private class MethodTimers {
+
+		private final String repository;
+
+		private final String method;
+
+		private final Timer success;
+
+		private final Map<Class<?>, Timer> failures = new ConcurrentHashMap<>();
+
+		MethodTimers(String repository, String method) {
+			this.repository = repository;
+			this.method = method;
+			this.success = timer(repository, method, "none");
+		}
+
+		Timer failure(Class<?> exception) {
+			return failures.computeIfAbsent(exception, type -> timer(repository, method, type.getSimpleName()));
+		}
+	}
+}
@@ -1,21 +1,25 @@
 package com.example.demo.model.persistence;
 
 import java.math.BigDecimal;
-import java.util.ArrayList;
-import java.util.HashSet;
-import java.util.List;
-import java.util.Set;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.Map;
 
+import javax.persistence.CascadeType;
 import javax.persistence.Column;
+import javax.persistence.Embedded;
 import javax.persistence.Entity;
 import javax.persistence.GeneratedValue;
 import javax.persistence.GenerationType;
 import javax.persistence.Id;
-import javax.persistence.ManyToMany;
+import javax.persistence.MapKey;
 import javax.persistence.OneToMany;
 import javax.persistence.OneToOne;
+import javax.persistence.OrderBy;
 import javax.persistence.Table;
+import javax.persistence.Version;
 
+import com.fasterxml.jackson.annotation.JsonIgnore;
 import com.fasterxml.jackson.annotation.JsonProperty;
 
 // The Cart data model that Hibernate persists to H2 holds a User's items
@@ -23,6 +27,9 @@ import com.fasterxml.jackson.annotation.JsonProperty;
 @Entity
 @Table(name = "cart")
 public class Cart {
+
+	// The most units of an item a cart holds, well below what overflows a quantity or the totals
+	public static final int MAX_QUANTITY = 10000;
 	
 	@Id
 	@GeneratedValue(strategy = GenerationType.IDENTITY)
@@ -30,25 +37,40 @@ public class Cart {
 	@Column
 	private Long id;
 	
-	@ManyToMany
-	@JsonProperty
-	@Column
-    private List<Item> items;
+	// One line per distinct item, keyed by item id, so that adding or removing any quantity is O(1)
+	@OneToMany(mappedBy = "cart", cascade = CascadeType.ALL, orphanRemoval = true)
+	@MapKey(name = "itemId")
+	@OrderBy("id")
+	@JsonIgnore
+	private Map<Long, CartItem> lineItems = new LinkedHashMap<>();
 	
 	@OneToOne(mappedBy = "cart")
 	@JsonProperty
     private User user;
 	
-	@Column
-	@JsonProperty
-	private BigDecimal total;
+	@Embedded
+	@JsonIgnore
+	private CartTotals totals = new CartTotals();
+
+	// Incremented by every update, so that of two updates made from the same version, the one that
+	// commits second fails instead of overwriting the first (see CartUpdateService). Carts stored
+	// before the column existed start at 0.
+	@Version
+	@Column(nullable = false, columnDefinition = "bigint default 0")
+	@JsonIgnore
+	private long version;
 	
+	@JsonProperty
 	public BigDecimal getTotal() {
-		return total;
+		return totals.getTotal();
 	}
 
-	public void setTotal(BigDecimal total) {
-		this.total = total;
+	public CartTotals getTotals() {
+		return totals;
+	}
+
+	public long getVersion() {
+		return version;
 	}
 
 	public User getUser() {
@@ -67,33 +89,98 @@ public class Cart {
 		this.id = id;
 	}
 
-	public List<Item> getItems() {
-		return items;
+	@JsonProperty
+	public Collection<CartItem> getItems() {
+		return lineItems.values();
 	}
 
-	public void setItems(List<Item> items) {
-		this.items = items;
+	// A copy of the cart and its lines that shares nothing with it, see WriteBehindCartStore
+	public Cart copy() {
+		Cart copy = new Cart();
+		copy.id = id;
+		copy.user = user;
+		copy.version = version;
+		for(CartItem line : lineItems.values()) {
+			copy.lineItems.put(line.getItemId(), new CartItem(copy, line));
+			copy.totals.add(line.getUnitPriceCents(), line.getQuantity());
+		}
+		return copy;
 	}
-	
+
+	public CartItem getLineItem(Long itemId) {
+		return lineItems.get(itemId);
+	}
+
 	public void addItem(Item item) {
-		if(items == null) {
-			items = new ArrayList<>();
+		addItem(item, 1);
+	}
+
+	// Adds up to the given quantity, a line holds at most MAX_QUANTITY units and the total only goes
+	// up by the units actually added
+	public void addItem(Item item, int quantity) {
+		if(quantity <= 0) {
+			return;
 		}
-		items.add(item);
-		if(total == null) {
-			total = new BigDecimal(0);
+		CartItem line = lineItems.get(item.getId());
+		if(line == null) {
+			line = new CartItem(this, item);
+			lineItems.put(item.getId(), line);
 		}
-		total = total.add(item.getPrice());
+		int added = Math.min(quantity, MAX_QUANTITY - line.getQuantity());
+		if(added <= 0) {
+			return;
+		}
+		line.setQuantity(line.getQuantity() + added);
+		totals.add(line.getUnitPriceCents(), added);
 	}
-	
+
+	// Sets the quantity of an item outright, 0 takes it out of the cart
+	public void setQuantity(Item item, int quantity) {
+		CartItem line = lineItems.get(item.getId());
+		int current = line == null ? 0 : line.getQuantity();
+		if(quantity > current) {
+			addItem(item, quantity - current);
+		} else {
+			removeItem(item, current - quantity);
+		}
+	}
+
+	// Sets the quantity of an item and the unit price it was taken at, e.g. in another copy of the
+	// cart, whatever the item costs now. 0 takes it out of the cart.
+	public void setLine(Item item, int quantity, BigDecimal unitPrice) {
+		CartItem line = lineItems.get(item.getId());
+		if(line != null) {
+			totals.subtract(line.getUnitPriceCents(), line.getQuantity());
+		}
+		if(quantity <= 0) {
+			lineItems.remove(item.getId());
+			return;
+		}
+		if(line == null) {
+			line = new CartItem(this, item);
+			lineItems.put(item.getId(), line);
+		}
+		line.setUnitPrice(unitPrice);
+		line.setQuantity(Math.min(quantity, MAX_QUANTITY));
+		totals.add(line.getUnitPriceCents(), line.getQuantity());
+	}
+
 	public void removeItem(Item item) {
-		if(items == null) {
-			items = new ArrayList<>();
+		removeItem(item, 1);
+	}
+
+	// Removes up to the given quantity, the total only goes down by the units actually removed
+	public void removeItem(Item item, int quantity) {
+		CartItem line = lineItems.get(item.getId());
+		if(line == null || quantity <= 0) {
+			return;
 		}
-		items.remove(item);
-		if(total == null) {
-			total = new BigDecimal(0);
+		int removed = Math.min(quantity, line.getQuantity());
+		if(removed == line.getQuantity()) {
+			lineItems.remove(item.getId());
+		} else {
+			line.setQuantity(line.getQuantity() - removed);
 		}
-		total = total.subtract(item.getPrice());
+		totals.subtract(line.getUnitPriceCents(), removed);
 	}
 }
@@ -0,0 +1,55 @@
+package com.example.demo.model.persistence;
+
+import javax.persistence.Entity;
+import javax.persistence.FetchType;
+import javax.persistence.GeneratedValue;
+import javax.persistence.GenerationType;
+import javax.persistence.Id;
+import javax.persistence.JoinColumn;
+import javax.persistence.ManyToOne;
+import javax.persistence.SequenceGenerator;
+import javax.persistence.Table;
+import javax.persistence.UniqueConstraint;
+
+import com.fasterxml.jackson.annotation.JsonIgnore;
+
+// The CartItem data model that Hibernate persists to H2 holds how many units of an Item are in a Cart
+
+@Entity
+@Table(name = "cart_item", uniqueConstraints = @UniqueConstraint(columnNames = { "cart_id", "item_id" }))
+public class CartItem extends LineItem {
+
+	// Sequence ids (unlike IDENTITY) let Hibernate batch the inserts of several line items
+	@Id
+	@GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "cart_item_seq")
+	@SequenceGenerator(name = "cart_item_seq", sequenceName = "cart_item_seq", allocationSize = 50)
+	@JsonIgnore
+	private Long id;
+
+	@ManyToOne(fetch = FetchType.LAZY, optional = false)
+	@JoinColumn(name = "cart_id", nullable = false)
+	@JsonIgnore
+	private Cart cart;
+
+	protected CartItem() {
+	}
+
+	public CartItem(Cart cart, Item item) {
+		super(item.getId(), item, 0, item.getPrice());
+		this.cart = cart;
+	}
+
+	// A new line of another cart with the item, quantity and unit price of the given line
+	public CartItem(Cart cart, CartItem line) {
+		super(line.getItemId(), line.getItem(), line.getQuantity(), line.getUnitPrice());
+		this.cart = cart;
+	}
+
+	public Long getId() {
+		return id;
+	}
+
+	public Cart getCart() {
+		return cart;
+	}
+}
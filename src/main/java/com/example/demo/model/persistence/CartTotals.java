@@ -0,0 +1,54 @@
+package com.example.demo.model.persistence;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+
+import javax.persistence.Column;
+import javax.persistence.Embeddable;
+
+// The running totals of a Cart: the number of units and their price in cents. Each change of a line
+// adds or subtracts its units times the line's unit price in cents, which is exact and does not
+// allocate, and the total is only turned into a BigDecimal when it is read.
+//
+// CartTotalsReconciliation rebuilds both columns from the cart_item rows. They default to 0, so that
+// adding them to a cart table that already has rows works on any database.
+
+@Embeddable
+public class CartTotals {
+
+	@Column(name = "total_cents", nullable = false, columnDefinition = "bigint default 0")
+	private long totalCents;
+
+	@Column(name = "units", nullable = false, columnDefinition = "bigint default 0")
+	private long units;
+
+	public long getTotalCents() {
+		return totalCents;
+	}
+
+	public long getUnits() {
+		return units;
+	}
+
+	public BigDecimal getTotal() {
+		return fromCents(totalCents);
+	}
+
+	public void add(long unitPriceCents, int quantity) {
+		totalCents += unitPriceCents * quantity;
+		units += quantity;
+	}
+
+	public void subtract(long unitPriceCents, int quantity) {
+		totalCents -= unitPriceCents * quantity;
+		units -= quantity;
+	}
+
+	public static long toCents(BigDecimal amount) {
+		return amount.movePointRight(2).setScale(0, RoundingMode.HALF_UP).longValueExact();
+	}
+
+	public static BigDecimal fromCents(long cents) {
+		return BigDecimal.valueOf(cents, 2);
+	}
+}
@@ -2,22 +2,34 @@ package com.example.demo.model.persistence;
 
 import java.math.BigDecimal;
 
+import javax.persistence.Cacheable;
 import javax.persistence.Column;
 import javax.persistence.Entity;
+import javax.persistence.EntityListeners;
 import javax.persistence.GeneratedValue;
 import javax.persistence.GenerationType;
 import javax.persistence.Id;
+import javax.persistence.Index;
 import javax.persistence.JoinColumn;
 import javax.persistence.ManyToOne;
 import javax.persistence.Table;
+import javax.persistence.Version;
 
+import org.hibernate.annotations.Cache;
+import org.hibernate.annotations.CacheConcurrencyStrategy;
+
+import com.example.demo.catalog.ItemEntityListener;
 import com.fasterxml.jackson.annotation.JsonIgnore;
 import com.fasterxml.jackson.annotation.JsonProperty;
 
-// The Item data model that Hibernate persists to H2 defines new items
+// The Item data model that Hibernate persists to H2 defines new items. Items are kept in the "item"
+// region of the second-level cache, see application.conf
 
 @Entity
-@Table(name = "item")
+@Table(name = "item", indexes = @Index(name = "idx_item_name", columnList = "name"))
+@EntityListeners(ItemEntityListener.class)
+@Cacheable
+@Cache(usage = CacheConcurrencyStrategy.READ_WRITE, region = "item")
 public class Item {
 
 	@Id
@@ -36,6 +48,13 @@ public class Item {
 	@Column(nullable = false)
 	@JsonProperty
 	private String description;
+
+	// Raised by every update, the catalog refresh compares the sum of the versions (see CatalogMarker).
+	// Rows inserted without it, like those of data.sql, start at 0.
+	@Version
+	@Column(nullable = false, columnDefinition = "bigint default 0")
+	@JsonIgnore
+	private long version;
 	
 	@Override
 	public int hashCode() {
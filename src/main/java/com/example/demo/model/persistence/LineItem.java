@@ -0,0 +1,94 @@
+package com.example.demo.model.persistence;
+
+import java.math.BigDecimal;
+
+import javax.persistence.Column;
+import javax.persistence.FetchType;
+import javax.persistence.JoinColumn;
+import javax.persistence.ManyToOne;
+import javax.persistence.MappedSuperclass;
+import javax.persistence.PostLoad;
+import javax.persistence.Transient;
+
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+// A LineItem holds one Item together with the number of units and the unit price it was taken at.
+// It is the common part of CartItem and OrderItem, so that a quantity of N costs one row instead of N.
+
+@MappedSuperclass
+public abstract class LineItem {
+
+	@Column(name = "item_id", nullable = false)
+	@JsonProperty
+	private Long itemId;
+
+	// Read-only navigation to the catalog entry, the item_id column is written through itemId
+	@ManyToOne(fetch = FetchType.LAZY)
+	@JoinColumn(name = "item_id", insertable = false, updatable = false)
+	@JsonIgnore
+	private Item item;
+
+	@Column(nullable = false)
+	@JsonProperty
+	private int quantity;
+
+	@Column(nullable = false)
+	@JsonProperty
+	private BigDecimal unitPrice;
+
+	// unitPrice in cents, for the cart totals
+	@Transient
+	@JsonIgnore
+	private long unitPriceCents;
+
+	protected LineItem() {
+	}
+
+	protected LineItem(Long itemId, Item item, int quantity, BigDecimal unitPrice) {
+		this.itemId = itemId;
+		this.item = item;
+		this.quantity = quantity;
+		this.unitPrice = unitPrice;
+		this.unitPriceCents = CartTotals.toCents(unitPrice);
+	}
+
+	@PostLoad
+	void loadUnitPriceCents() {
+		unitPriceCents = CartTotals.toCents(unitPrice);
+	}
+
+	public Long getItemId() {
+		return itemId;
+	}
+
+	public Item getItem() {
+		return item;
+	}
+
+	public int getQuantity() {
+		return quantity;
+	}
+
+	public void setQuantity(int quantity) {
+		this.quantity = quantity;
+	}
+
+	public BigDecimal getUnitPrice() {
+		return unitPrice;
+	}
+
+	void setUnitPrice(BigDecimal unitPrice) {
+		this.unitPrice = unitPrice;
+		this.unitPriceCents = CartTotals.toCents(unitPrice);
+	}
+
+	public long getUnitPriceCents() {
+		return unitPriceCents;
+	}
+
+	@JsonIgnore
+	public BigDecimal getSubtotal() {
+		return unitPrice.multiply(BigDecimal.valueOf(quantity));
+	}
+}
@@ -0,0 +1,61 @@
+package com.example.demo.model.persistence;
+
+import java.math.BigDecimal;
+
+import javax.persistence.Entity;
+import javax.persistence.FetchType;
+import javax.persistence.GeneratedValue;
+import javax.persistence.GenerationType;
+import javax.persistence.Id;
+import javax.persistence.JoinColumn;
+import javax.persistence.ManyToOne;
+import javax.persistence.SequenceGenerator;
+import javax.persistence.Table;
+
+import com.fasterxml.jackson.annotation.JsonIgnore;
+
+// The OrderItem data model that Hibernate persists to H2 holds how many units of an Item were ordered,
+// and at which price
+
+@Entity
+@Table(name = "order_item")
+public class OrderItem extends LineItem {
+
+	@Id
+	@GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "order_item_seq")
+	@SequenceGenerator(name = "order_item_seq", sequenceName = "order_item_seq", allocationSize = 50)
+	@JsonIgnore
+	private Long id;
+
+	@ManyToOne(fetch = FetchType.LAZY, optional = false)
+	@JoinColumn(name = "user_order_id", nullable = false)
+	@JsonIgnore
+	private UserOrder order;
+
+	protected OrderItem() {
+	}
+
+	// Only the item id is copied, so that the line can be stored from another persistence context
+	public OrderItem(UserOrder order, LineItem line) {
+		super(line.getItemId(), null, line.getQuantity(), line.getUnitPrice());
+		this.order = order;
+	}
+
+	public OrderItem(UserOrder order, Long itemId, int quantity, BigDecimal unitPrice) {
+		super(itemId, null, quantity, unitPrice);
+		this.order = order;
+	}
+
+	public OrderItem(UserOrder order, Item item, int quantity, BigDecimal unitPrice) {
+		super(item.getId(), item, quantity, unitPrice);
+		this.order = order;
+	}
+
+	public Long getId() {
+		return id;
+	}
+
+	public UserOrder getOrder() {
+		return order;
+	}
+}
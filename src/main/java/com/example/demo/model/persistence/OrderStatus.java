@@ -0,0 +1,9 @@
+package com.example.demo.model.persistence;
+
+// The stages of a UserOrder. Orders submitted synchronously are COMPLETED right away, asynchronous
+// submissions are PENDING until a worker has stored their items.
+public enum OrderStatus {
+	PENDING,
+	COMPLETED,
+	FAILED
+}
@@ -1,38 +1,47 @@
 package com.example.demo.model.persistence;
 
 import java.math.BigDecimal;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.stream.Collectors;
 
 import javax.persistence.CascadeType;
 import javax.persistence.Column;
 import javax.persistence.Entity;
+import javax.persistence.EnumType;
+import javax.persistence.Enumerated;
 import javax.persistence.GeneratedValue;
 import javax.persistence.GenerationType;
 import javax.persistence.Id;
 import javax.persistence.JoinColumn;
-import javax.persistence.ManyToMany;
+import javax.persistence.Lob;
 import javax.persistence.ManyToOne;
+import javax.persistence.OneToMany;
+import javax.persistence.OrderBy;
 import javax.persistence.Table;
+import javax.persistence.UniqueConstraint;
 
+import com.fasterxml.jackson.annotation.JsonIgnore;
 import com.fasterxml.jackson.annotation.JsonProperty;
 
 // The UserOrder data model that Hibernate persists to H2 holds information about submitted orders
 
 @Entity
-@Table(name = "user_order")
+@Table(name = "user_order", uniqueConstraints = @UniqueConstraint(columnNames = { "user_id", "idempotency_key" }))
 public class UserOrder {
 
+	public static final int IDEMPOTENCY_KEY_LENGTH = 64;
+
 	@Id
 	@GeneratedValue(strategy = GenerationType.IDENTITY)
 	@JsonProperty
 	@Column
 	private Long id;
 	
-	@ManyToMany(cascade = CascadeType.ALL)
+	@OneToMany(mappedBy = "order", cascade = CascadeType.ALL)
+	@OrderBy("id")
 	@JsonProperty
-	@Column
-    private List<Item> items;
+    private List<OrderItem> items;
 	
 	@ManyToOne
 	@JoinColumn(name="user_id", nullable = false, referencedColumnName = "id")
@@ -43,6 +52,24 @@ public class UserOrder {
 	@Column
 	private BigDecimal total;
 
+	@Enumerated(EnumType.STRING)
+	@JsonProperty
+	@Column
+	private OrderStatus status = OrderStatus.COMPLETED;
+
+	// The Idempotency-Key the client submitted the order with, a retry with the same key gets this
+	// order back instead of a new one
+	@JsonIgnore
+	@Column(name = "idempotency_key", length = IDEMPOTENCY_KEY_LENGTH)
+	private String idempotencyKey;
+
+	// The lines of a PENDING order, kept in its row until they are stored as order items, so that they
+	// survive a restart. Each line is itemId:quantity:unitPrice, separated by spaces.
+	@JsonIgnore
+	@Lob
+	@Column(name = "pending_lines")
+	private String pendingLines;
+
 	public Long getId() {
 		return id;
 	}
@@ -51,11 +78,11 @@ public class UserOrder {
 		this.id = id;
 	}
 
-	public List<Item> getItems() {
+	public List<OrderItem> getItems() {
 		return items;
 	}
 
-	public void setItems(List<Item> items) {
+	public void setItems(List<OrderItem> items) {
 		this.items = items;
 	}
 
@@ -75,9 +102,58 @@ public class UserOrder {
 		this.total = total;
 	}
 
+	public OrderStatus getStatus() {
+		return status;
+	}
+
+	public void setStatus(OrderStatus status) {
+		this.status = status;
+	}
+
+	public String getIdempotencyKey() {
+		return idempotencyKey;
+	}
+
+	public void setIdempotencyKey(String idempotencyKey) {
+		this.idempotencyKey = idempotencyKey;
+	}
+
+	public boolean hasDeferredItems() {
+		return pendingLines != null;
+	}
+
+	// Moves the lines of the order into its row and marks it PENDING, one row is stored instead of
+	// one per line
+	public void deferItems() {
+		StringBuilder lines = new StringBuilder();
+		for(OrderItem line : items) {
+			if(lines.length() > 0) {
+				lines.append(' ');
+			}
+			lines.append(line.getItemId()).append(':').append(line.getQuantity()).append(':').append(line.getUnitPrice().toPlainString());
+		}
+		pendingLines = lines.toString();
+		items = new ArrayList<>();
+		status = OrderStatus.PENDING;
+	}
+
+	// Turns the deferred lines into order items and marks the order COMPLETED
+	public void completeDeferredItems() {
+		for(String line : pendingLines.split(" ")) {
+			if(!line.isEmpty()) {
+				String[] fields = line.split(":");
+				items.add(new OrderItem(this, Long.valueOf(fields[0]), Integer.parseInt(fields[1]), new BigDecimal(fields[2])));
+			}
+		}
+		pendingLines = null;
+		status = OrderStatus.COMPLETED;
+	}
+
 	public static UserOrder createFromCart(Cart cart) {
 		UserOrder order = new UserOrder();
-		order.setItems(cart.getItems().stream().collect(Collectors.toList()));
+		order.setItems(cart.getItems().stream()
+				.map(line -> new OrderItem(order, line))
+				.collect(Collectors.toList()));
 		order.setTotal(cart.getTotal());
 		order.setUser(cart.getUser());
 		return order;
@@ -0,0 +1,55 @@
+package com.example.demo.model.persistence.migrations;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.event.ContextRefreshedEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.core.annotation.Order;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionTemplate;
+
+// Rebuilds the total_cents and units of every cart from its cart_item rows with one statement, and
+// only touches the carts whose totals differ. Their version is incremented too, so that a request
+// that read the wrong totals fails its version check instead of writing them back.
+//
+// It runs on startup right after LineItemMigration, before the web server takes requests, and also
+// fills in the totals of carts stored before the columns existed, which start at 0. It can be run
+// again at any time with reconcile().
+
+@Component
+public class CartTotalsReconciliation {
+
+	private static final Logger log = LoggerFactory.getLogger(CartTotalsReconciliation.class);
+
+	private static final String LINE_TOTAL_CENTS = "(select cast(coalesce(sum(l.quantity * round(l.unit_price * 100)), 0) as bigint) "
+			+ "from cart_item l where l.cart_id = c.id)";
+
+	private static final String LINE_UNITS = "(select coalesce(sum(l.quantity), 0) from cart_item l where l.cart_id = c.id)";
+
+	private static final String RECONCILE = "update cart c set total_cents = " + LINE_TOTAL_CENTS
+			+ ", units = " + LINE_UNITS + ", version = c.version + 1 "
+			+ "where c.total_cents <> " + LINE_TOTAL_CENTS + " or c.units <> " + LINE_UNITS;
+
+	@Autowired
+	private JdbcTemplate jdbcTemplate;
+
+	@Autowired
+	private TransactionTemplate transactionTemplate;
+
+	@EventListener(ContextRefreshedEvent.class)
+	@Order(2)
+	public void reconcileAtStartup() {
+		reconcile();
+	}
+
+	// Returns the number of carts that were corrected
+	public int reconcile() {
+		int corrected = transactionTemplate.execute(status -> jdbcTemplate.update(RECONCILE));
+		if(corrected > 0) {
+			log.warn("Rebuilt the totals of {} carts from their line items", corrected);
+		}
+		return corrected;
+	}
+}
@@ -0,0 +1,97 @@
+package com.example.demo.model.persistence.migrations;
+
+import java.sql.ResultSet;
+import java.util.List;
+
+import javax.persistence.EntityManager;
+import javax.persistence.PersistenceContext;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.event.ContextRefreshedEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.core.annotation.Order;
+import org.springframework.jdbc.core.ConnectionCallback;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import com.example.demo.model.persistence.Cart;
+import com.example.demo.model.persistence.CartItem;
+import com.example.demo.model.persistence.Item;
+import com.example.demo.model.persistence.OrderItem;
+import com.example.demo.model.persistence.UserOrder;
+
+// Carts and orders used to keep one join table row per unit (cart_items and user_order_items).
+// On startup, any such rows are folded into cart_item and order_item line items, one row per
+// distinct item with its quantity, and the old join tables are dropped. The cart totals of the new
+// line items are then rebuilt by CartTotalsReconciliation.
+//
+// It runs once the application context is refreshed, which is before the web server takes requests,
+// so no request reads or writes a cart whose rows are still being folded.
+
+@Component
+public class LineItemMigration {
+
+	private static final Logger log = LoggerFactory.getLogger(LineItemMigration.class);
+
+	@Autowired
+	private JdbcTemplate jdbcTemplate;
+
+	@Autowired
+	private TransactionTemplate transactionTemplate;
+
+	@PersistenceContext
+	private EntityManager entityManager;
+
+	@EventListener(ContextRefreshedEvent.class)
+	@Order(1)
+	public void migrate() {
+		if(tableExists("CART_ITEMS")) {
+			transactionTemplate.execute(status -> migrateCarts());
+		}
+		if(tableExists("USER_ORDER_ITEMS")) {
+			transactionTemplate.execute(status -> migrateOrders());
+		}
+	}
+
+	private int migrateCarts() {
+		List<Object[]> rows = jdbcTemplate.query(
+				"select cart_id, items_id, count(*) from cart_items group by cart_id, items_id",
+				(rs, i) -> new Object[] { rs.getLong(1), rs.getLong(2), rs.getInt(3) });
+		for(Object[] row : rows) {
+			CartItem line = new CartItem(entityManager.find(Cart.class, row[0]), entityManager.find(Item.class, row[1]));
+			line.setQuantity((Integer) row[2]);
+			entityManager.persist(line);
+		}
+		entityManager.flush();
+		jdbcTemplate.execute("drop table cart_items");
+		log.info("Migrated {} cart_items groups into cart_item line items", rows.size());
+		return rows.size();
+	}
+
+	// The price each unit was ordered at was never stored, so the item's current price is used
+	private int migrateOrders() {
+		List<Object[]> rows = jdbcTemplate.query(
+				"select user_order_id, items_id, count(*) from user_order_items group by user_order_id, items_id",
+				(rs, i) -> new Object[] { rs.getLong(1), rs.getLong(2), rs.getInt(3) });
+		for(Object[] row : rows) {
+			Item item = entityManager.find(Item.class, row[1]);
+			entityManager.persist(new OrderItem(entityManager.find(UserOrder.class, row[0]), item,
+					(Integer) row[2], item.getPrice()));
+		}
+		entityManager.flush();
+		jdbcTemplate.execute("drop table user_order_items");
+		log.info("Migrated {} user_order_items groups into order_item line items", rows.size());
+		return rows.size();
+	}
+
+	private boolean tableExists(String table) {
+		return jdbcTemplate.execute((ConnectionCallback<Boolean>) connection -> {
+			try(ResultSet tables = connection.getMetaData().getTables(null, null, table, new String[] { "TABLE" })) {
+				return tables.next();
+			}
+		});
+	}
+}
@@ -1,10 +1,33 @@
 package com.example.demo.model.persistence.repositories;
 
+import java.util.Collection;
+import java.util.List;
+import java.util.Optional;
+
+import javax.persistence.LockModeType;
+
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Lock;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
 
 import com.example.demo.model.persistence.Cart;
 import com.example.demo.model.persistence.User;
 
 public interface CartRepository extends JpaRepository<Cart, Long> {
 	Cart findByUser(User user);
+
+	// Reads a cart and locks its row until the end of the transaction, see CartUpdateService
+	@Lock(LockModeType.PESSIMISTIC_WRITE)
+	@Query("select c from Cart c where c.id = :id")
+	Optional<Cart> findByIdForUpdate(@Param("id") Long id);
+
+	// Reads carts and locks their rows until the end of the transaction, see WriteBehindCartStore
+	@Lock(LockModeType.PESSIMISTIC_WRITE)
+	@Query("select c from Cart c where c.id in :ids")
+	List<Cart> findAllByIdForUpdate(@Param("ids") Collection<Long> ids);
+
+	// Reads a cart together with its user and lines, so that they can be used outside of a transaction
+	@Query("select distinct c from Cart c left join fetch c.user left join fetch c.lineItems where c.id = :id")
+	Optional<Cart> findWithLineItemsById(@Param("id") Long id);
 }
@@ -1,12 +1,23 @@
 package com.example.demo.model.persistence.repositories;
 
-import java.util.List;
+import java.util.stream.Stream;
+
+import javax.persistence.QueryHint;
 
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.jpa.repository.QueryHints;
 
+import com.example.demo.catalog.CatalogMarker;
 import com.example.demo.model.persistence.Item;
 
 public interface ItemRepository extends JpaRepository<Item, Long> {
-	public List<Item> findByName(String name);
+	// Has to be consumed inside a transaction, and closed afterwards
+	@Query("select i from Item i order by i.id")
+	@QueryHints(@QueryHint(name = org.hibernate.jpa.QueryHints.HINT_FETCH_SIZE, value = "256"))
+	public Stream<Item> streamAll();
+
+	@Query("select new com.example.demo.catalog.CatalogMarker(count(i), max(i.id), sum(i.version)) from Item i")
+	public CatalogMarker findCatalogMarker();
 
 }
@@ -1,12 +1,46 @@
 package com.example.demo.model.persistence.repositories;
 
+import java.util.Collection;
 import java.util.List;
+import java.util.Optional;
 
+import javax.persistence.LockModeType;
+
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.jpa.repository.EntityGraph;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Lock;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
 
+import com.example.demo.model.persistence.OrderStatus;
 import com.example.demo.model.persistence.User;
 import com.example.demo.model.persistence.UserOrder;
+import com.example.demo.model.responses.OrderLineSummary;
+import com.example.demo.model.responses.OrderSummary;
 
 public interface OrderRepository extends JpaRepository<UserOrder, Long> {
 	List<UserOrder> findByUser(User user);
+
+	// Order headers of a user, newest first, starting below the id of the last order already seen
+	@Query("select new com.example.demo.model.responses.OrderSummary(o.id, o.total, o.status) "
+			+ "from UserOrder o where o.user.id = :userId and o.id < :before order by o.id desc")
+	List<OrderSummary> findSummariesByUserId(@Param("userId") long userId, @Param("before") Long before, Pageable pageable);
+
+	// The lines of a page of orders in one query
+	@Query("select new com.example.demo.model.responses.OrderLineSummary(l.order.id, l.itemId, i.name, l.quantity, l.unitPrice) "
+			+ "from OrderItem l left join l.item i where l.order.id in :orderIds order by l.id")
+	List<OrderLineSummary> findLineSummariesByOrderIds(@Param("orderIds") Collection<Long> orderIds);
+
+	// The lines are read with the order, it is returned to the client after the transaction
+	@EntityGraph(attributePaths = "items")
+	UserOrder findByUserIdAndIdempotencyKey(long userId, String idempotencyKey);
+
+	@Query("select o.id from UserOrder o where o.status = :status order by o.id")
+	List<Long> findIdsByStatus(@Param("status") OrderStatus status);
+
+	// Locks the order row until the end of the transaction, so that it is completed only once
+	@Lock(LockModeType.PESSIMISTIC_WRITE)
+	@Query("select o from UserOrder o where o.id = :id")
+	Optional<UserOrder> findByIdForUpdate(@Param("id") Long id);
 }
@@ -1,9 +1,17 @@
 package com.example.demo.model.persistence.repositories;
 
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
 
 import com.example.demo.model.persistence.User;
+import com.example.demo.security.UserPrincipal;
 
 public interface UserRepository extends JpaRepository<User, Long> {
 	User findByUsername(String username);
+
+	// The ids of a user and its cart, without loading either of them
+	@Query("select new com.example.demo.security.UserPrincipal(u.id, u.username, c.id) "
+			+ "from User u left join u.cart c where u.username = :username")
+	UserPrincipal findPrincipalByUsername(@Param("username") String username);
 }
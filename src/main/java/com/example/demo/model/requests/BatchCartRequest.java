@@ -0,0 +1,43 @@
+package com.example.demo.model.requests;
+
+import java.util.List;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+import javax.validation.Valid;
+import javax.validation.constraints.NotEmpty;
+import javax.validation.constraints.NotNull;
+import javax.validation.constraints.Size;
+
+public class BatchCartRequest {
+
+	// The most operations of one batch, all applied while the cart row is locked
+	public static final int MAX_OPERATIONS = 100;
+
+	@JsonProperty
+	@NotNull(message = "User name cannot be null")
+	private String username;
+
+	@JsonProperty
+	@NotEmpty(message = "Operations cannot be empty")
+	@Size(max = MAX_OPERATIONS, message = "Operations cannot be more than " + MAX_OPERATIONS)
+	@Valid
+	private List<CartOperation> operations;
+
+	public String getUsername() {
+		return username;
+	}
+
+	public void setUsername(String username) {
+		this.username = username;
+	}
+
+	public List<CartOperation> getOperations() {
+		return operations;
+	}
+
+	public void setOperations(List<CartOperation> operations) {
+		this.operations = operations;
+	}
+
+}
@@ -0,0 +1,57 @@
+package com.example.demo.model.requests;
+
+import com.example.demo.model.persistence.Cart;
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+import javax.validation.constraints.Max;
+import javax.validation.constraints.Min;
+import javax.validation.constraints.NotNull;
+
+public class CartOperation {
+
+	public enum Type {
+		ADD,
+		REMOVE,
+		SET
+	}
+
+	@JsonProperty
+	@NotNull(message = "Operation type cannot be null")
+	private Type type;
+
+	@JsonProperty
+	@NotNull(message = "Item Id cannot be null")
+	private long itemId;
+
+	// For ADD and REMOVE this is the number of units to add or remove, for SET the resulting
+	// quantity, where 0 removes the item from the cart
+	@JsonProperty
+	@Min(value = 0, message = "Quantity cannot be negative")
+	@Max(value = Cart.MAX_QUANTITY, message = "Quantity cannot be more than " + Cart.MAX_QUANTITY)
+	private int quantity;
+
+	public Type getType() {
+		return type;
+	}
+
+	public void setType(Type type) {
+		this.type = type;
+	}
+
+	public long getItemId() {
+		return itemId;
+	}
+
+	public void setItemId(long itemId) {
+		this.itemId = itemId;
+	}
+
+	public int getQuantity() {
+		return quantity;
+	}
+
+	public void setQuantity(int quantity) {
+		this.quantity = quantity;
+	}
+
+}
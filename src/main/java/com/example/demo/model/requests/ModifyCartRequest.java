@@ -1,7 +1,10 @@
 package com.example.demo.model.requests;
 
+import com.example.demo.model.persistence.Cart;
 import com.fasterxml.jackson.annotation.JsonProperty;
 
+import javax.validation.constraints.Max;
+import javax.validation.constraints.Min;
 import javax.validation.constraints.NotNull;
 
 public class ModifyCartRequest {
@@ -16,6 +19,8 @@ public class ModifyCartRequest {
 	
 	@JsonProperty
 	@NotNull(message = "Quantity cannot be null")
+	@Min(value = 1, message = "Quantity must be at least 1")
+	@Max(value = Cart.MAX_QUANTITY, message = "Quantity cannot be more than " + Cart.MAX_QUANTITY)
 	private int quantity;
 
 	public String getUsername() {
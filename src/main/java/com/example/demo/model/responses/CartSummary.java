@@ -0,0 +1,45 @@
+package com.example.demo.model.responses;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.List;
+
+import com.example.demo.model.persistence.Cart;
+import com.example.demo.model.persistence.CartItem;
+
+// A cart, as the cart endpoints return it: its lines and total, without the user it belongs to
+
+public class CartSummary {
+
+	private Long id;
+
+	private BigDecimal total;
+
+	private List<LineSummary> items;
+
+	public CartSummary(Long id, BigDecimal total, List<LineSummary> items) {
+		this.id = id;
+		this.total = total;
+		this.items = items;
+	}
+
+	public static CartSummary of(Cart cart) {
+		List<LineSummary> items = new ArrayList<>(cart.getItems().size());
+		for(CartItem line : cart.getItems()) {
+			items.add(LineSummary.of(line));
+		}
+		return new CartSummary(cart.getId(), cart.getTotal(), items);
+	}
+
+	public Long getId() {
+		return id;
+	}
+
+	public BigDecimal getTotal() {
+		return total;
+	}
+
+	public List<LineSummary> getItems() {
+		return items;
+	}
+}
@@ -0,0 +1,52 @@
+package com.example.demo.model.responses;
+
+import java.math.BigDecimal;
+
+import com.example.demo.model.persistence.Item;
+import com.example.demo.model.persistence.LineItem;
+import com.fasterxml.jackson.annotation.JsonInclude;
+
+// One line of a cart or an order: the item id, how many units and the unit price they were taken at.
+// The whole Item is only added when the client asks for it with ?expand=items.
+
+public class LineSummary {
+
+	private Long itemId;
+
+	private int quantity;
+
+	private BigDecimal unitPrice;
+
+	@JsonInclude(JsonInclude.Include.NON_NULL)
+	private Item item;
+
+	public LineSummary(Long itemId, int quantity, BigDecimal unitPrice) {
+		this.itemId = itemId;
+		this.quantity = quantity;
+		this.unitPrice = unitPrice;
+	}
+
+	public static LineSummary of(LineItem line) {
+		return new LineSummary(line.getItemId(), line.getQuantity(), line.getUnitPrice());
+	}
+
+	public Long getItemId() {
+		return itemId;
+	}
+
+	public int getQuantity() {
+		return quantity;
+	}
+
+	public BigDecimal getUnitPrice() {
+		return unitPrice;
+	}
+
+	public Item getItem() {
+		return item;
+	}
+
+	public void setItem(Item item) {
+		this.item = item;
+	}
+}
@@ -0,0 +1,29 @@
+package com.example.demo.model.responses;
+
+import java.math.BigDecimal;
+
+import com.fasterxml.jackson.annotation.JsonIgnore;
+
+// One line of an OrderSummary of the order history, with the item name instead of the whole Item
+
+public class OrderLineSummary extends LineSummary {
+
+	@JsonIgnore
+	private Long orderId;
+
+	private String itemName;
+
+	public OrderLineSummary(Long orderId, Long itemId, String itemName, int quantity, BigDecimal unitPrice) {
+		super(itemId, quantity, unitPrice);
+		this.orderId = orderId;
+		this.itemName = itemName;
+	}
+
+	public Long getOrderId() {
+		return orderId;
+	}
+
+	public String getItemName() {
+		return itemName;
+	}
+}
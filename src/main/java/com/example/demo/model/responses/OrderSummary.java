@@ -0,0 +1,58 @@
+package com.example.demo.model.responses;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.List;
+
+import com.example.demo.model.persistence.OrderItem;
+import com.example.demo.model.persistence.OrderStatus;
+import com.example.demo.model.persistence.UserOrder;
+
+// One order, as the order endpoints return it. In the order history it is read with a JPQL
+// constructor expression, so only the columns shown here are loaded and no UserOrder entities end up
+// in the persistence context. A submitted order is turned into one with of().
+
+public class OrderSummary {
+
+	private Long id;
+
+	private BigDecimal total;
+
+	private OrderStatus status;
+
+	private List<LineSummary> items = new ArrayList<>();
+
+	public OrderSummary(Long id, BigDecimal total, OrderStatus status) {
+		this.id = id;
+		this.total = total;
+		this.status = status;
+	}
+
+	public static OrderSummary of(UserOrder order) {
+		OrderSummary summary = new OrderSummary(order.getId(), order.getTotal(), order.getStatus());
+		for(OrderItem line : order.getItems()) {
+			summary.items.add(LineSummary.of(line));
+		}
+		return summary;
+	}
+
+	public Long getId() {
+		return id;
+	}
+
+	public BigDecimal getTotal() {
+		return total;
+	}
+
+	public OrderStatus getStatus() {
+		return status;
+	}
+
+	public List<LineSummary> getItems() {
+		return items;
+	}
+
+	public void setItems(List<LineSummary> items) {
+		this.items = items;
+	}
+}
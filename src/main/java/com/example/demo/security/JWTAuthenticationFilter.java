@@ -1,7 +1,9 @@
 package com.example.demo.security;
 
 import com.auth0.jwt.JWT;
+import com.fasterxml.jackson.databind.DeserializationFeature;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
 import org.springframework.security.authentication.AuthenticationManager;
 import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
 import org.springframework.security.core.Authentication;
@@ -31,16 +33,21 @@ public class JWTAuthenticationFilter extends UsernamePasswordAuthenticationFilte
 
     private AuthenticationManager authenticationManager;
 
-    public JWTAuthenticationFilter(AuthenticationManager authenticationManager) {
+    // Readers are immutable and thread-safe, one is shared by all logins. Unknown properties are still
+    // rejected, as they were before the reader came from the application's ObjectMapper.
+    private final ObjectReader credentialsReader;
+
+    public JWTAuthenticationFilter(AuthenticationManager authenticationManager, ObjectMapper objectMapper) {
         this.authenticationManager = authenticationManager;
+        this.credentialsReader = objectMapper.readerFor(User.class)
+                .with(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES);
     }
 
     @Override
     public Authentication attemptAuthentication(HttpServletRequest req,
                                                 HttpServletResponse res) throws AuthenticationException {
         try {
-            User credentials = new ObjectMapper()
-                    .readValue(req.getInputStream(), User.class);
+            User credentials = credentialsReader.readValue(req.getInputStream());
 
             return authenticationManager.authenticate(
                     new UsernamePasswordAuthenticationToken(
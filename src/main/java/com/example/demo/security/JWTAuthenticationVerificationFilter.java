@@ -1,7 +1,5 @@
 package com.example.demo.security;
 
-import com.auth0.jwt.JWT;
-import com.auth0.jwt.algorithms.Algorithm;
 import org.springframework.security.authentication.AuthenticationManager;
 import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
 import org.springframework.security.core.context.SecurityContextHolder;
@@ -16,14 +14,16 @@ import java.io.IOException;
 import java.util.ArrayList;
 
 import static com.example.demo.security.SecurityConstants.HEADER_STRING;
-import static com.example.demo.security.SecurityConstants.SECRET;
 import static com.example.demo.security.SecurityConstants.TOKEN_PREFIX;
 
 @Component
 public class JWTAuthenticationVerificationFilter extends BasicAuthenticationFilter {
 
-    public JWTAuthenticationVerificationFilter(AuthenticationManager authManager) {
+    private final VerifiedTokenCache tokenCache;
+
+    public JWTAuthenticationVerificationFilter(AuthenticationManager authManager, VerifiedTokenCache tokenCache) {
         super(authManager);
+        this.tokenCache = tokenCache;
     }
 
     @Override
@@ -46,11 +46,8 @@ public class JWTAuthenticationVerificationFilter extends BasicAuthenticationFilt
     private UsernamePasswordAuthenticationToken getAuthentication(HttpServletRequest request) {
         String token = request.getHeader(HEADER_STRING);
         if (token != null) {
-            // parse the token.
-            String user = JWT.require(Algorithm.HMAC512(SECRET.getBytes()))
-                    .build()
-                    .verify(token.replace(TOKEN_PREFIX, ""))
-                    .getSubject();
+            // parse the token, unless it has already been verified and has not expired yet.
+            String user = tokenCache.getSubject(token.replace(TOKEN_PREFIX, ""));
 
             if (user != null) {
                 return new UsernamePasswordAuthenticationToken(user, null, new ArrayList<>());
@@ -0,0 +1,48 @@
+package com.example.demo.security;
+
+import com.example.demo.model.persistence.repositories.UserRepository;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.event.TransactionalEventListener;
+
+import javax.annotation.PostConstruct;
+
+// Looks up the user a request acts for. Only the ids of the user and its cart are read, with a single
+// query, and they are kept in a bounded cache (security.principal-cache.spec) across requests, so a
+// user sending requests in a row is loaded once. An entry is dropped once a transaction that updated
+// or deleted the user commits.
+@Component
+public class PrincipalResolver {
+
+    private static final Logger log = LoggerFactory.getLogger(PrincipalResolver.class);
+
+    @Autowired
+    private UserRepository userRepository;
+
+    @Value("${security.principal-cache.spec:maximumSize=10000,expireAfterAccess=10m}")
+    private String cacheSpec;
+
+    // username -> principal
+    private Cache<String, UserPrincipal> principals;
+
+    @PostConstruct
+    public void init() {
+        principals = Caffeine.from(cacheSpec).build();
+    }
+
+    // Unknown users are not cached, so that a user signing up is found right away
+    public UserPrincipal resolve(String username) {
+        return principals.get(username, userRepository::findPrincipalByUsername);
+    }
+
+    @TransactionalEventListener(fallbackExecution = true)
+    public void onUserChanged(UserChangedEvent event) {
+        principals.invalidate(event.getUsername());
+        log.debug("Cached principal dropped after {}", event);
+    }
+}
@@ -6,4 +6,5 @@ public class SecurityConstants {
     public static final String TOKEN_PREFIX = "Bearer ";
     public static final String HEADER_STRING = "Authorization";
     public static final String SIGN_UP_URL = "/api/user/create";
+    public static final int TOKEN_CACHE_MAX_SIZE = 10_000;
 }
\ No newline at end of file
@@ -0,0 +1,48 @@
+package com.example.demo.security;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import org.springframework.security.crypto.bcrypt.BCryptPasswordEncoder;
+
+import java.util.function.Supplier;
+
+// BCryptPasswordEncoder that records how long hashing a new password (operation=encode) and
+// checking one at login (operation=matches) take, as the "security.bcrypt" timer
+public class TimedBCryptPasswordEncoder extends BCryptPasswordEncoder implements MeterBinder {
+
+    private volatile Timer encodeTimer;
+    private volatile Timer matchesTimer;
+
+    public TimedBCryptPasswordEncoder(int strength) {
+        super(strength);
+    }
+
+    @Override
+    public String encode(CharSequence rawPassword) {
+        return record(encodeTimer, () -> super.encode(rawPassword));
+    }
+
+    @Override
+    public boolean matches(CharSequence rawPassword, String encodedPassword) {
+        return record(matchesTimer, () -> super.matches(rawPassword, encodedPassword));
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        encodeTimer = timer(registry, "encode");
+        matchesTimer = timer(registry, "matches");
+    }
+
+    private static Timer timer(MeterRegistry registry, String operation) {
+        return Timer.builder("security.bcrypt")
+                .tag("operation", operation)
+                .description("BCrypt password hashing")
+                .publishPercentileHistogram()
+                .register(registry);
+    }
+
+    private static <T> T record(Timer timer, Supplier<T> operation) {
+        return timer == null ? operation.get() : timer.record(operation);
+    }
+}
@@ -0,0 +1,21 @@
+package com.example.demo.security;
+
+// Published through the application context when a User is updated or deleted through JPA, so that
+// copies of its credentials (see UserDetailsServiceImpl) are dropped.
+public class UserChangedEvent {
+
+    private final String username;
+
+    public UserChangedEvent(String username) {
+        this.username = username;
+    }
+
+    public String getUsername() {
+        return username;
+    }
+
+    @Override
+    public String toString() {
+        return "UserChangedEvent{username=" + username + "}";
+    }
+}
@@ -1,7 +1,12 @@
 package com.example.demo.security;
 
 import com.example.demo.model.persistence.repositories.UserRepository;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 
 import com.example.demo.model.persistence.User;
 // import org.springframework.security.core.userdetails.User;
@@ -10,21 +15,53 @@ import org.springframework.security.core.userdetails.UserDetails;
 import org.springframework.security.core.userdetails.UserDetailsService;
 import org.springframework.security.core.userdetails.UsernameNotFoundException;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.event.TransactionalEventListener;
+
+import javax.annotation.PostConstruct;
 
 import static java.util.Collections.emptyList;
 
+// Loads the credentials checked at login. The username and password hash of recent users are kept
+// in a bounded cache (security.user-cache.spec), and an entry is dropped once a transaction that
+// updated or deleted the user commits. Each call returns a new UserDetails, because Spring Security
+// erases the password of the one it was given after authentication.
 @Service
 public class UserDetailsServiceImpl implements UserDetailsService {
 
+    private static final Logger log = LoggerFactory.getLogger(UserDetailsServiceImpl.class);
+
     @Autowired
     private UserRepository userRepository;
 
+    @Value("${security.user-cache.spec:maximumSize=10000,expireAfterWrite=5m}")
+    private String cacheSpec;
+
+    // username -> password hash
+    private Cache<String, String> passwordHashes;
+
+    @PostConstruct
+    public void init() {
+        passwordHashes = Caffeine.from(cacheSpec).build();
+    }
+
     @Override
     public UserDetails loadUserByUsername(String username) throws UsernameNotFoundException {
-        User user = userRepository.findByUsername(username);
-        if (user == null) {
+        String passwordHash = passwordHashes.get(username, this::findPasswordHash);
+        if (passwordHash == null) {
             throw new UsernameNotFoundException(username);
         }
-        return new org.springframework.security.core.userdetails.User(user.getUsername(), user.getPassword(), emptyList());
+        return new org.springframework.security.core.userdetails.User(username, passwordHash, emptyList());
+    }
+
+    @TransactionalEventListener(fallbackExecution = true)
+    public void onUserChanged(UserChangedEvent event) {
+        passwordHashes.invalidate(event.getUsername());
+        log.debug("Cached credentials dropped after {}", event);
+    }
+
+    // Unknown users are not cached, so that a user signing up can log in right away
+    private String findPasswordHash(String username) {
+        User user = userRepository.findByUsername(username);
+        return user == null ? null : user.getPassword();
     }
 }
@@ -0,0 +1,24 @@
+package com.example.demo.security;
+
+import javax.persistence.PostRemove;
+import javax.persistence.PostUpdate;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.ApplicationEventPublisher;
+
+import com.example.demo.model.persistence.User;
+
+// JPA entity listener of User, obtained from the Spring bean container like ItemEntityListener
+public class UserEntityListener {
+
+    @Autowired
+    private ApplicationEventPublisher eventPublisher;
+
+    @PostUpdate
+    @PostRemove
+    public void changed(User user) {
+        if (eventPublisher != null) {
+            eventPublisher.publishEvent(new UserChangedEvent(user.getUsername()));
+        }
+    }
+}
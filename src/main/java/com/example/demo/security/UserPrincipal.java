@@ -0,0 +1,35 @@
+package com.example.demo.security;
+
+// The ids of a user and of its cart, all that a request acting for the user needs of it. Loaded by
+// PrincipalResolver with one query that reads neither the password nor the cart.
+public class UserPrincipal {
+
+    private final long id;
+
+    private final String username;
+
+    private final Long cartId;
+
+    public UserPrincipal(long id, String username, Long cartId) {
+        this.id = id;
+        this.username = username;
+        this.cartId = cartId;
+    }
+
+    public long getId() {
+        return id;
+    }
+
+    public String getUsername() {
+        return username;
+    }
+
+    public Long getCartId() {
+        return cartId;
+    }
+
+    @Override
+    public String toString() {
+        return "UserPrincipal{id=" + id + ", username=" + username + ", cartId=" + cartId + "}";
+    }
+}
@@ -0,0 +1,161 @@
+package com.example.demo.security;
+
+import com.auth0.jwt.JWT;
+import com.auth0.jwt.JWTVerifier;
+import com.auth0.jwt.exceptions.JWTVerificationException;
+import com.auth0.jwt.interfaces.DecodedJWT;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import org.springframework.stereotype.Component;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Base64;
+import java.util.Date;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static com.auth0.jwt.algorithms.Algorithm.HMAC512;
+import static com.example.demo.security.SecurityConstants.SECRET;
+import static com.example.demo.security.SecurityConstants.TOKEN_CACHE_MAX_SIZE;
+
+// Remembers the subject of every JWT that already passed HMAC512 verification, keyed by a SHA-256
+// digest of the token, so that repeat requests with the same token skip the signature check.
+// Entries never outlive the token's own "exp" claim, and tokens without one are not cached.
+// Hits, misses and size are published as "security.token.cache.*" meters, and the signature checks
+// on misses as the "security.jwt.verify" timer.
+@Component
+public class VerifiedTokenCache implements MeterBinder {
+
+    // JWTVerifier is immutable and thread safe, so a single instance serves every request
+    private static final JWTVerifier VERIFIER = JWT.require(HMAC512(SECRET.getBytes())).build();
+
+    private static final ThreadLocal<MessageDigest> SHA_256 = ThreadLocal.withInitial(() -> {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    });
+
+    private static final long PURGE_INTERVAL_MILLIS = 1_000;
+
+    private final ConcurrentHashMap<String, Entry> entries = new ConcurrentHashMap<>();
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong lastPurge = new AtomicLong();
+    private final int maxSize;
+    private volatile Timer verifyTimer;
+
+    public VerifiedTokenCache() {
+        this(TOKEN_CACHE_MAX_SIZE);
+    }
+
+    public VerifiedTokenCache(int maxSize) {
+        this.maxSize = maxSize;
+    }
+
+    /**
+     * Returns the subject of the given token, verifying its signature and expiry only when the
+     * token is not already cached.
+     *
+     * @throws JWTVerificationException if the token is not valid
+     */
+    public String getSubject(String token) {
+        String key = digest(token);
+        long now = System.currentTimeMillis();
+
+        Entry entry = entries.get(key);
+        if (entry != null) {
+            if (entry.expiresAt > now) {
+                hits.incrementAndGet();
+                return entry.subject;
+            }
+            entries.remove(key, entry);
+        }
+
+        misses.incrementAndGet();
+        DecodedJWT jwt = verify(token);
+        String subject = jwt.getSubject();
+        Date expiresAt = jwt.getExpiresAt();
+        if (subject != null && expiresAt != null) {
+            makeRoom(now);
+            entries.put(key, new Entry(subject, expiresAt.getTime()));
+        }
+        return subject;
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        FunctionCounter.builder("security.token.cache.requests", hits, AtomicLong::get)
+                .tag("result", "hit")
+                .description("Token checks answered from the cache")
+                .register(registry);
+        FunctionCounter.builder("security.token.cache.requests", misses, AtomicLong::get)
+                .tag("result", "miss")
+                .description("Token checks that needed a signature check")
+                .register(registry);
+        Gauge.builder("security.token.cache.size", entries, ConcurrentHashMap::size)
+                .description("Verified tokens in the cache")
+                .register(registry);
+        verifyTimer = Timer.builder("security.jwt.verify")
+                .description("JWT signature and expiry checks")
+                .publishPercentileHistogram()
+                .register(registry);
+    }
+
+    public long getHits() {
+        return hits.get();
+    }
+
+    public long getMisses() {
+        return misses.get();
+    }
+
+    public int size() {
+        return entries.size();
+    }
+
+    private DecodedJWT verify(String token) {
+        Timer timer = verifyTimer;
+        return timer == null ? VERIFIER.verify(token) : timer.record(() -> VERIFIER.verify(token));
+    }
+
+    private void makeRoom(long now) {
+        if (entries.size() < maxSize) {
+            return;
+        }
+        // Dropping expired tokens is a full scan, so it runs at most once per interval; in between,
+        // an arbitrary entry is evicted instead and its owner simply pays for one more verification
+        long last = lastPurge.get();
+        if (now - last >= PURGE_INTERVAL_MILLIS && lastPurge.compareAndSet(last, now)) {
+            entries.values().removeIf(e -> e.expiresAt <= now);
+        }
+        Iterator<String> keys = entries.keySet().iterator();
+        while (entries.size() >= maxSize && keys.hasNext()) {
+            keys.next();
+            keys.remove();
+        }
+    }
+
+    private static String digest(String token) {
+        MessageDigest sha256 = SHA_256.get();
+        sha256.reset();
+        return Base64.getEncoder().encodeToString(sha256.digest(token.getBytes(StandardCharsets.UTF_8)));
+    }
+
+    private static final class Entry {
+        private final String subject;
+        private final long expiresAt;
+
+        private Entry(String subject, long expiresAt) {
+            this.subject = subject;
+            this.expiresAt = expiresAt;
+        }
+    }
+}
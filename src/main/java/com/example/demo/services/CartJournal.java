@@ -0,0 +1,230 @@
+package com.example.demo.services;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+// The append-only journal of WriteBehindCartStore. Every change of a cart is written as one line
+// with the whole content of the cart after the change, the cart id followed by one
+// itemId:quantity:unitPrice triple per line, e.g. "12 3:1:2.99 7:2:1.50". The unit price is the one
+// the line was taken at, so a price change before the record is stored does not reprice it. A record
+// is absolute, so of the records of a cart only the last one counts, and replaying a record that was
+// already stored stores the same content again.
+//
+// Records of an earlier version have itemId:quantity pairs only, their lines are read without a
+// unit price.
+//
+// The journal is split in numbered segment files. Appends go to the newest segment, rotate starts a
+// new one, and the older segments are deleted once the carts changed in them have been stored.
+//
+// With fsync, appends are forced to the disk in groups: an append that finds another one forcing the
+// channel waits for it, and then forces every record written in the meantime at once, so concurrent
+// appends share one force instead of queueing for one each.
+//
+// The directory is locked while the journal is open, a second application started on the same
+// directory fails instead of mixing its segments with the first one's.
+class CartJournal implements Closeable {
+
+	private static final Logger log = LoggerFactory.getLogger(CartJournal.class);
+
+	private static final String PREFIX = "cart-journal-";
+
+	private static final String SUFFIX = ".log";
+
+	private static final String LOCK = "cart-journal.lock";
+
+	private final Path directory;
+
+	// Whether every append is forced to the disk, and not only handed to the operating system
+	private final boolean fsync;
+
+	private final FileChannel lockChannel;
+
+	// Held while the channel is forced, taken before the journal's own lock
+	private final Object forceLock = new Object();
+
+	private long segment;
+
+	private FileChannel channel;
+
+	// Number of records written, and of those forced to the disk
+	private long written;
+
+	private long forced;
+
+	// Opens a new segment after the ones left by an earlier run, which can still be read
+	CartJournal(Path directory, boolean fsync) throws IOException {
+		this.directory = directory;
+		this.fsync = fsync;
+		Files.createDirectories(directory);
+		lockChannel = FileChannel.open(directory.resolve(LOCK), StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+		FileLock lock;
+		try {
+			lock = lockChannel.tryLock();
+		} catch(OverlappingFileLockException e) {
+			lock = null;
+		}
+		if(lock == null) {
+			lockChannel.close();
+			throw new IOException("Cart journal " + directory + " is in use by another application");
+		}
+		TreeMap<Long, Path> segments = segments();
+		segment = segments.isEmpty() ? 1 : segments.lastKey() + 1;
+		channel = open(segment);
+	}
+
+	// The segment that is appended to, the ones before it are not written any more
+	synchronized long getSegment() {
+		return segment;
+	}
+
+	// Returns once the record is written, and with fsync once it is on the disk
+	void append(Long cartId, Map<Long, Line> lines) throws IOException {
+		StringBuilder record = new StringBuilder().append(cartId);
+		lines.forEach((itemId, line) -> record.append(' ').append(itemId).append(':').append(line.getQuantity())
+				.append(':').append(line.getUnitPrice().toPlainString()));
+		ByteBuffer buffer = ByteBuffer.wrap(record.append('\n').toString().getBytes(StandardCharsets.US_ASCII));
+		long number;
+		synchronized(this) {
+			while(buffer.hasRemaining()) {
+				channel.write(buffer);
+			}
+			number = ++written;
+		}
+		if(fsync) {
+			force(number);
+		}
+	}
+
+	// Starts a new segment and returns its number. The records of the segment it ends are forced first.
+	long rotate() throws IOException {
+		synchronized(forceLock) {
+			synchronized(this) {
+				if(fsync && forced < written) {
+					channel.force(false);
+				}
+				forced = written;
+				FileChannel next = open(segment + 1);
+				channel.close();
+				channel = next;
+				return ++segment;
+			}
+		}
+	}
+
+	// The last record of each cart in the segments before the given one, oldest segment first. A last
+	// line without its line feed is a record whose append was cut off, and is skipped.
+	Map<Long, Map<Long, Line>> read(long before) throws IOException {
+		Map<Long, Map<Long, Line>> carts = new LinkedHashMap<>();
+		for(Map.Entry<Long, Path> entry : segments().headMap(before).entrySet()) {
+			String content = new String(Files.readAllBytes(entry.getValue()), StandardCharsets.US_ASCII);
+			int end = content.lastIndexOf('\n') + 1;
+			if(end < content.length()) {
+				log.warn("Cart journal segment {} ends with an incomplete record, it is skipped", entry.getKey());
+			}
+			for(String line : content.substring(0, end).split("\n")) {
+				if(!line.isEmpty()) {
+					String[] fields = line.split(" ");
+					Map<Long, Line> lines = new LinkedHashMap<>();
+					for(int i = 1; i < fields.length; i++) {
+						String[] parts = fields[i].split(":");
+						lines.put(Long.valueOf(parts[0]),
+								new Line(Integer.parseInt(parts[1]), parts.length > 2 ? new BigDecimal(parts[2]) : null));
+					}
+					Long cartId = Long.valueOf(fields[0]);
+					carts.remove(cartId);
+					carts.put(cartId, lines);
+				}
+			}
+		}
+		return carts;
+	}
+
+	// Deletes the segments before the given one
+	void delete(long before) throws IOException {
+		for(Path path : segments().headMap(before).values()) {
+			Files.delete(path);
+		}
+	}
+
+	@Override
+	public void close() throws IOException {
+		synchronized(forceLock) {
+			synchronized(this) {
+				channel.close();
+				lockChannel.close();
+			}
+		}
+	}
+
+	// Forces the records written up to the given one, unless an append that forced the channel in the
+	// meantime already did. Appends go on while the channel is forced.
+	private void force(long number) throws IOException {
+		synchronized(forceLock) {
+			if(forced >= number) {
+				return;
+			}
+			long upTo;
+			FileChannel forcing;
+			synchronized(this) {
+				upTo = written;
+				forcing = channel;
+			}
+			forcing.force(false);
+			forced = upTo;
+		}
+	}
+
+	// The quantity of an item in a journaled cart and the unit price it was taken at, null in the
+	// records of an earlier version
+	static final class Line {
+
+		private final int quantity;
+
+		private final BigDecimal unitPrice;
+
+		Line(int quantity, BigDecimal unitPrice) {
+			this.quantity = quantity;
+			this.unitPrice = unitPrice;
+		}
+
+		int getQuantity() {
+			return quantity;
+		}
+
+		BigDecimal getUnitPrice() {
+			return unitPrice;
+		}
+	}
+
+	private FileChannel open(long number) throws IOException {
+		return FileChannel.open(directory.resolve(PREFIX + number + SUFFIX),
+				StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+	}
+
+	private TreeMap<Long, Path> segments() throws IOException {
+		TreeMap<Long, Path> segments = new TreeMap<>();
+		try(DirectoryStream<Path> paths = Files.newDirectoryStream(directory, PREFIX + "*" + SUFFIX)) {
+			for(Path path : paths) {
+				String name = path.getFileName().toString();
+				segments.put(Long.valueOf(name.substring(PREFIX.length(), name.length() - SUFFIX.length())), path);
+			}
+		}
+		return segments;
+	}
+}
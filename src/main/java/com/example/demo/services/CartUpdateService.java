@@ -0,0 +1,86 @@
+package com.example.demo.services;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.function.Consumer;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.dao.OptimisticLockingFailureException;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import com.example.demo.model.persistence.Cart;
+import com.example.demo.model.persistence.repositories.CartRepository;
+
+// Reads a cart, applies a change to it and stores it in one transaction, holding the lock of the
+// cart row from the read to the commit, so that changes of the same cart are applied one after the
+// other. Cart is also versioned: when the request already holds the cart, read before another
+// request stored it, the lock or the flush fails with an OptimisticLockingFailureException instead
+// of overwriting that request's change. The change is then applied again to the cart as it is now
+// stored, after a short random pause, up to cart.update.max-attempts times. The exception of the
+// last attempt is rethrown.
+//
+// The row lock is not only there to spare retries. Under contention H2 can let two updates with the
+// same "where version = ?" through, the check is only reliable while the row is locked.
+//
+// Hibernate flushes the inserts of new line items before the versioned cart update, so a request
+// that races another one to add the first units of an item fails on the unique cart_id and item_id
+// of cart_item instead. That is retried the same way.
+//
+// With cart.write-behind.enabled=true the changes are handed to the WriteBehindCartStore instead, and
+// stored later. Once it is stopping, they are rejected with a RejectedExecutionException.
+@Service
+public class CartUpdateService {
+
+	private static final Logger log = LoggerFactory.getLogger(CartUpdateService.class);
+
+	@Autowired
+	private CartRepository cartRepository;
+
+	@Autowired
+	private TransactionTemplate transactionTemplate;
+
+	@Autowired(required = false)
+	private WriteBehindCartStore writeBehindCartStore;
+
+	@Value("${cart.update.max-attempts:5}")
+	private int maxAttempts;
+
+	public Cart update(Long cartId, Consumer<Cart> change) {
+		if(writeBehindCartStore != null) {
+			return writeBehindCartStore.update(cartId, change);
+		}
+		for(int attempt = 1; ; attempt++) {
+			try {
+				return transactionTemplate.execute(status -> {
+					Cart cart = cartRepository.findByIdForUpdate(cartId)
+							.orElseThrow(() -> new IllegalStateException("Cart " + cartId + " does not exist"));
+					change.accept(cart);
+					Cart saved = cartRepository.save(cart);
+					cartRepository.flush();
+					return saved;
+				});
+			} catch(OptimisticLockingFailureException | DataIntegrityViolationException e) {
+				// A violation is another request that added the first units of the same item, and
+				// so inserted the same cart_id and item_id line, first
+				if(attempt >= maxAttempts) {
+					throw e;
+				}
+				log.debug("Cart {} was updated concurrently, attempt {} of {}", cartId, attempt, maxAttempts);
+				pause(attempt);
+			}
+		}
+	}
+
+	// Up to 2, 4, 8... ms, so that the requests that collided do not collide again right away
+	private static void pause(int attempt) {
+		try {
+			Thread.sleep(ThreadLocalRandom.current().nextLong(1L << Math.min(attempt, 6)) + 1);
+		} catch(InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+}
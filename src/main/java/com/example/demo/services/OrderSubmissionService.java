@@ -0,0 +1,193 @@
+package com.example.demo.services;
+
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import com.example.demo.model.persistence.Cart;
+import com.example.demo.model.persistence.OrderStatus;
+import com.example.demo.model.persistence.UserOrder;
+import com.example.demo.model.persistence.repositories.CartRepository;
+import com.example.demo.model.persistence.repositories.OrderRepository;
+import com.example.demo.security.UserPrincipal;
+
+// Turns the cart of a user into a UserOrder, either right away or in two steps: a PENDING order is
+// stored on the request thread, with its lines in the order row, and a bounded pool of workers later
+// stores the lines as order items and completes it. When the pool and its queue are full the
+// submission is rejected instead of queued. Orders that are still PENDING when the application stops
+// are completed after the next start.
+//
+// Both modes take an optional idempotency key. A submission with a key that the user already
+// submitted with returns the earlier order and stores nothing.
+@Service
+public class OrderSubmissionService {
+
+	private static final Logger log = LoggerFactory.getLogger(OrderSubmissionService.class);
+
+	@Autowired
+	private OrderRepository orderRepository;
+
+	@Autowired
+	private CartRepository cartRepository;
+
+	@Autowired
+	private TransactionTemplate transactionTemplate;
+
+	@Autowired(required = false)
+	private WriteBehindCartStore writeBehindCartStore;
+
+	@Value("${orders.async.threads:4}")
+	private int threads;
+
+	@Value("${orders.async.queue-capacity:1000}")
+	private int queueCapacity;
+
+	private ThreadPoolExecutor executor;
+
+	@PostConstruct
+	public void start() {
+		ThreadFactory threadFactory = new ThreadFactory() {
+			private final AtomicInteger count = new AtomicInteger();
+
+			@Override
+			public Thread newThread(Runnable runnable) {
+				return new Thread(runnable, "order-submit-" + count.incrementAndGet());
+			}
+		};
+		executor = new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS,
+				new ArrayBlockingQueue<>(queueCapacity), threadFactory, new ThreadPoolExecutor.AbortPolicy());
+	}
+
+	// Lets queued orders finish before the application context goes away
+	@PreDestroy
+	public void stop() throws InterruptedException {
+		executor.shutdown();
+		if(!executor.awaitTermination(30, TimeUnit.SECONDS)) {
+			log.error("Order submission workers did not finish, {} orders left PENDING", executor.getQueue().size());
+			executor.shutdownNow();
+		}
+	}
+
+	// Orders that were PENDING when the application stopped are completed from the lines in their row,
+	// on this thread once the workers' queue is full
+	@EventListener(ApplicationReadyEvent.class)
+	public void resumePendingOrders() {
+		List<Long> pending = orderRepository.findIdsByStatus(OrderStatus.PENDING);
+		for(Long orderId : pending) {
+			try {
+				executor.execute(() -> complete(orderId));
+			} catch(RejectedExecutionException e) {
+				complete(orderId);
+			}
+		}
+		if(!pending.isEmpty()) {
+			log.warn("{} orders were still PENDING at startup and are completed now", pending.size());
+		}
+	}
+
+	public UserOrder submit(UserPrincipal user, String idempotencyKey) {
+		UserOrder existing = findExisting(user.getId(), idempotencyKey);
+		if(existing != null) {
+			return existing;
+		}
+		UserOrder order = UserOrder.createFromCart(loadCart(user.getCartId()));
+		order.setIdempotencyKey(idempotencyKey);
+		return save(order);
+	}
+
+	// Stores the order as PENDING, with its lines in the order row, and hands it to a worker. Throws
+	// RejectedExecutionException, with nothing stored, when the workers are saturated.
+	public UserOrder submitAsync(UserPrincipal user, String idempotencyKey) {
+		UserOrder existing = findExisting(user.getId(), idempotencyKey);
+		if(existing != null) {
+			return existing;
+		}
+		UserOrder order = UserOrder.createFromCart(loadCart(user.getCartId()));
+		order.deferItems();
+		order.setIdempotencyKey(idempotencyKey);
+		UserOrder intent = save(order);
+		if(intent != order) {
+			// A concurrent submission with the same key was stored first
+			return intent;
+		}
+		try {
+			executor.execute(() -> complete(intent.getId()));
+		} catch(RejectedExecutionException e) {
+			orderRepository.deleteById(intent.getId());
+			throw e;
+		}
+		return intent;
+	}
+
+	public int getQueueDepth() {
+		return executor.getQueue().size();
+	}
+
+	// The cart is read with its lines, the request has no open session to load them from later on.
+	// Changes of a write-behind cart are stored first.
+	private Cart loadCart(Long cartId) {
+		if(writeBehindCartStore != null) {
+			writeBehindCartStore.flush(cartId);
+		}
+		return cartRepository.findWithLineItemsById(cartId).orElseThrow(IllegalStateException::new);
+	}
+
+	private UserOrder findExisting(long userId, String idempotencyKey) {
+		return idempotencyKey == null ? null : orderRepository.findByUserIdAndIdempotencyKey(userId, idempotencyKey);
+	}
+
+	private UserOrder save(UserOrder order) {
+		try {
+			return orderRepository.save(order);
+		} catch(DataIntegrityViolationException e) {
+			UserOrder existing = findExisting(order.getUser().getId(), order.getIdempotencyKey());
+			if(existing == null) {
+				throw e;
+			}
+			return existing;
+		}
+	}
+
+	// An order that is no longer PENDING was completed by another instance after a restart, and one
+	// left PENDING without its lines by an earlier version cannot be completed
+	private void complete(Long orderId) {
+		try {
+			transactionTemplate.execute(status -> {
+				UserOrder order = orderRepository.findByIdForUpdate(orderId).orElseThrow(IllegalStateException::new);
+				if(order.getStatus() != OrderStatus.PENDING) {
+					return order;
+				}
+				if(!order.hasDeferredItems()) {
+					log.error("Order {} is PENDING without its lines, it is marked FAILED", orderId);
+					order.setStatus(OrderStatus.FAILED);
+					return order;
+				}
+				order.completeDeferredItems();
+				return orderRepository.save(order);
+			});
+		} catch(RuntimeException e) {
+			log.error("Order {} could not be completed", orderId, e);
+			transactionTemplate.execute(status -> {
+				orderRepository.findById(orderId).ifPresent(order -> order.setStatus(OrderStatus.FAILED));
+				return null;
+			});
+		}
+	}
+}
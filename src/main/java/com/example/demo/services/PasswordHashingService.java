@@ -0,0 +1,73 @@
+package com.example.demo.services;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.security.crypto.bcrypt.BCryptPasswordEncoder;
+import org.springframework.stereotype.Service;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+
+// Hashes new passwords on a small pool of its own, so that a burst of sign-ups cannot take every
+// request thread for BCrypt. Hashes that cannot be queued are rejected with a
+// RejectedExecutionException. The queue depth and busy workers are published as the
+// "password.hashing.queue" and "password.hashing.active" gauges.
+@Service
+public class PasswordHashingService implements MeterBinder {
+
+	@Autowired
+	private BCryptPasswordEncoder bCryptPasswordEncoder;
+
+	@Value("${security.bcrypt.threads:2}")
+	private int threads;
+
+	@Value("${security.bcrypt.queue-capacity:100}")
+	private int queueCapacity;
+
+	private ThreadPoolExecutor executor;
+
+	@PostConstruct
+	public void start() {
+		ThreadFactory threadFactory = new ThreadFactory() {
+			private final AtomicInteger count = new AtomicInteger();
+
+			@Override
+			public Thread newThread(Runnable runnable) {
+				return new Thread(runnable, "password-hashing-" + count.incrementAndGet());
+			}
+		};
+		executor = new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS,
+				new ArrayBlockingQueue<>(queueCapacity), threadFactory, new ThreadPoolExecutor.AbortPolicy());
+	}
+
+	@PreDestroy
+	public void stop() throws InterruptedException {
+		executor.shutdown();
+		executor.awaitTermination(10, TimeUnit.SECONDS);
+	}
+
+	public CompletableFuture<String> encode(String rawPassword) {
+		return CompletableFuture.supplyAsync(() -> bCryptPasswordEncoder.encode(rawPassword), executor);
+	}
+
+	@Override
+	public void bindTo(MeterRegistry registry) {
+		Gauge.builder("password.hashing.queue", executor, e -> e.getQueue().size())
+				.description("Passwords waiting to be hashed")
+				.register(registry);
+		Gauge.builder("password.hashing.active", executor, ThreadPoolExecutor::getActiveCount)
+				.description("Passwords being hashed")
+				.register(registry);
+	}
+}
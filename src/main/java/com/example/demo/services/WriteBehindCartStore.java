@@ -0,0 +1,359 @@
+package com.example.demo.services;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import com.example.demo.model.persistence.Cart;
+import com.example.demo.model.persistence.CartItem;
+import com.example.demo.model.persistence.Item;
+import com.example.demo.model.persistence.repositories.CartRepository;
+import com.example.demo.model.persistence.repositories.ItemRepository;
+import com.example.demo.services.CartJournal.Line;
+
+// Write-behind carts, enabled with cart.write-behind.enabled=true. A cart is read from the database
+// the first time it is changed and from then on changed in memory. Each change is appended to a
+// CartJournal before it is answered, and the changed carts are stored in transactions of up to
+// cart.write-behind.batch-size carts every cart.write-behind.flush-interval-ms, at shutdown, and one
+// by one before an order is made from them. Segments of the journal are deleted once the carts
+// changed in them are stored, and what is left of the journal is stored at the next start, before
+// any request is served, so a crash loses no change that was answered. Lines are stored at the unit
+// price they were taken at, as answered to the request, even when the item's price changed before the
+// flush or the replay.
+//
+// Changes of the same cart, i.e. of the same user, are applied one after the other under the lock of
+// its stripe, changes of carts in other stripes run in parallel. A cart in memory is never modified,
+// a change is applied to a copy that replaces it, so the cart returned to a request stays as it was.
+//
+// A cart is stored by one flush at a time: a flush that finds the cart being stored by another one
+// waits for that store, and not for the rest of the other flush, so storing a cart before an order
+// does not wait behind a periodic flush of other carts.
+//
+// The store stops before the embedded web server does, which in this version of Spring Boot is only
+// stopped once the beans are destroyed. Changes that still come in while it stops are rejected with a
+// RejectedExecutionException, answered with 503, instead of failing on the closed journal.
+//
+// The carts in memory are only seen by this instance: with several instances behind a load balancer,
+// the requests of a user have to be routed to the same instance.
+@Service
+@ConditionalOnProperty(name = "cart.write-behind.enabled", havingValue = "true")
+public class WriteBehindCartStore {
+
+	private static final Logger log = LoggerFactory.getLogger(WriteBehindCartStore.class);
+
+	private static final int STRIPES = 64;
+
+	@Autowired
+	private CartRepository cartRepository;
+
+	@Autowired
+	private ItemRepository itemRepository;
+
+	@Autowired
+	private TransactionTemplate transactionTemplate;
+
+	@Value("${cart.write-behind.journal-dir:./data/cart-journal}")
+	private String journalDirectory;
+
+	@Value("${cart.write-behind.fsync:true}")
+	private boolean fsync;
+
+	@Value("${cart.write-behind.flush-interval-ms:1000}")
+	private long flushInterval;
+
+	@Value("${cart.write-behind.batch-size:100}")
+	private int batchSize;
+
+	@Value("${cart.write-behind.idle-eviction-ms:60000}")
+	private long idleEviction;
+
+	private final Object[] stripes = new Object[STRIPES];
+
+	private final Map<Long, LiveCart> carts = new ConcurrentHashMap<>();
+
+	// Carts changed since they were last stored
+	private final Set<Long> dirty = ConcurrentHashMap.newKeySet();
+
+	// Carts being stored, completed once they are stored or marked changed again
+	private final Map<Long, CompletableFuture<Void>> storing = new ConcurrentHashMap<>();
+
+	// Number of stores that failed, a flush that sees one fail keeps the journal segments
+	private final AtomicLong failedStores = new AtomicLong();
+
+	private CartJournal journal;
+
+	private ScheduledExecutorService flusher;
+
+	private volatile boolean stopping;
+
+	public WriteBehindCartStore() {
+		for(int i = 0; i < STRIPES; i++) {
+			stripes[i] = new Object();
+		}
+	}
+
+	@PostConstruct
+	public void start() throws IOException {
+		journal = new CartJournal(Paths.get(journalDirectory), fsync);
+		long segment = journal.getSegment();
+		Map<Long, Map<Long, Line>> recovered = journal.read(segment);
+		if(!recovered.isEmpty()) {
+			List<Long> cartIds = new ArrayList<>(recovered.keySet());
+			for(int from = 0; from < cartIds.size(); from += batchSize) {
+				store(cartIds.subList(from, Math.min(cartIds.size(), from + batchSize)), recovered);
+			}
+			log.warn("{} carts changed before the last shutdown were stored from the cart journal", recovered.size());
+		}
+		journal.delete(segment);
+		flusher = Executors.newSingleThreadScheduledExecutor(runnable -> new Thread(runnable, "cart-flush"));
+		flusher.scheduleWithFixedDelay(this::scheduledFlush, flushInterval, flushInterval, TimeUnit.MILLISECONDS);
+	}
+
+	// Rejects new changes, waits for the ones being applied, and stores the carts that are still
+	// changed in memory. Whatever cannot be stored stays in the journal.
+	@PreDestroy
+	public void stop() throws IOException, InterruptedException {
+		stopping = true;
+		for(Object stripe : stripes) {
+			synchronized(stripe) {
+				// A change that took the lock before stopping was set is journaled by now
+			}
+		}
+		flusher.shutdown();
+		flusher.awaitTermination(30, TimeUnit.SECONDS);
+		try {
+			flush();
+		} catch(RuntimeException e) {
+			log.error("{} carts could not be stored at shutdown, they are stored from the cart journal at the next start", dirty.size(), e);
+		}
+		journal.close();
+	}
+
+	// Applies a change to a cart and returns the changed cart, which must not be modified. Throws
+	// RejectedExecutionException, with nothing changed, once the store is stopping.
+	public Cart update(Long cartId, Consumer<Cart> change) {
+		synchronized(stripe(cartId)) {
+			if(stopping) {
+				throw new RejectedExecutionException("Cart " + cartId + " cannot be changed, the cart store is stopping");
+			}
+			LiveCart live = carts.get(cartId);
+			if(live == null) {
+				live = new LiveCart(cartRepository.findWithLineItemsById(cartId)
+						.orElseThrow(() -> new IllegalStateException("Cart " + cartId + " does not exist")));
+				carts.put(cartId, live);
+			}
+			Cart changed = live.cart.copy();
+			change.accept(changed);
+			// Marked before it is journaled, so that a flush that rotates the journal after the append
+			// also stores the change
+			dirty.add(cartId);
+			try {
+				journal.append(cartId, lines(changed));
+			} catch(IOException e) {
+				throw new UncheckedIOException("Change of cart " + cartId + " could not be journaled", e);
+			}
+			live.cart = changed;
+			live.touched = System.currentTimeMillis();
+			return changed;
+		}
+	}
+
+	// Stores every cart changed since the last flush, cart.write-behind.batch-size carts per
+	// transaction, and deletes the journal segments they were changed in. Carts that were not changed
+	// for cart.write-behind.idle-eviction-ms are dropped from memory, and read from the database again
+	// at their next change.
+	public synchronized void flush() {
+		long failures = failedStores.get();
+		long segment;
+		try {
+			segment = journal.rotate();
+		} catch(IOException e) {
+			throw new UncheckedIOException("Cart journal could not be rotated", e);
+		}
+		List<Long> cartIds = new ArrayList<>(dirty);
+		for(int from = 0; from < cartIds.size(); from += batchSize) {
+			Map<Long, Map<Long, Line>> changed = new LinkedHashMap<>();
+			for(Long cartId : cartIds.subList(from, Math.min(cartIds.size(), from + batchSize))) {
+				Map<Long, Line> lines = take(cartId);
+				if(lines != null) {
+					changed.put(cartId, lines);
+				}
+			}
+			storeTaken(changed);
+		}
+		// Carts taken before the rotation by flush(Long) are in the old segments too
+		for(CompletableFuture<Void> store : new ArrayList<>(storing.values())) {
+			store.join();
+		}
+		if(failedStores.get() == failures) {
+			try {
+				journal.delete(segment);
+			} catch(IOException e) {
+				log.error("Cart journal segments before {} could not be deleted, they are stored again at the next start", segment, e);
+			}
+		}
+		long idleSince = System.currentTimeMillis() - idleEviction;
+		for(Map.Entry<Long, LiveCart> entry : carts.entrySet()) {
+			synchronized(stripe(entry.getKey())) {
+				if(entry.getValue().touched < idleSince && !dirty.contains(entry.getKey()) && !storing.containsKey(entry.getKey())) {
+					carts.remove(entry.getKey());
+				}
+			}
+		}
+	}
+
+	// Stores one cart right away, e.g. before an order is made from it. Only waits for a flush that
+	// is storing the same cart.
+	public void flush(Long cartId) {
+		Map<Long, Line> lines = take(cartId);
+		if(lines != null) {
+			Map<Long, Map<Long, Line>> changed = new LinkedHashMap<>();
+			changed.put(cartId, lines);
+			storeTaken(changed);
+		}
+	}
+
+	int getDirtyCount() {
+		return dirty.size();
+	}
+
+	private void scheduledFlush() {
+		try {
+			flush();
+		} catch(RuntimeException e) {
+			log.error("Carts could not be stored, {} carts are left to the next flush", dirty.size(), e);
+		}
+	}
+
+	// Takes a changed cart to store it, and returns its lines, or null when it has not been
+	// changed since it was stored. Waits for a store of the cart that is still running.
+	private Map<Long, Line> take(Long cartId) {
+		while(true) {
+			CompletableFuture<Void> running;
+			synchronized(stripe(cartId)) {
+				running = storing.get(cartId);
+				if(running == null) {
+					if(!dirty.remove(cartId)) {
+						return null;
+					}
+					storing.put(cartId, new CompletableFuture<>());
+					return lines(carts.get(cartId).cart);
+				}
+			}
+			running.join();
+		}
+	}
+
+	// Stores the taken carts, and marks them changed again when they could not be stored
+	private void storeTaken(Map<Long, Map<Long, Line>> changed) {
+		if(changed.isEmpty()) {
+			return;
+		}
+		boolean stored = false;
+		try {
+			store(new ArrayList<>(changed.keySet()), changed);
+			stored = true;
+		} finally {
+			if(!stored) {
+				failedStores.incrementAndGet();
+			}
+			for(Long cartId : changed.keySet()) {
+				synchronized(stripe(cartId)) {
+					if(!stored) {
+						dirty.add(cartId);
+					}
+					storing.remove(cartId).complete(null);
+				}
+			}
+		}
+	}
+
+	// Sets the given stored carts to their lines in one transaction. A line journaled by an earlier
+	// version, without its unit price, keeps the stored line's price, or takes the item's current one.
+	private void store(List<Long> batch, Map<Long, Map<Long, Line>> linesByCart) {
+		transactionTemplate.execute(status -> {
+			Set<Long> itemIds = new HashSet<>();
+			for(Long cartId : batch) {
+				itemIds.addAll(linesByCart.get(cartId).keySet());
+			}
+			Map<Long, Item> items = new HashMap<>();
+			for(Item item : itemRepository.findAllById(itemIds)) {
+				items.put(item.getId(), item);
+			}
+			List<Cart> stored = cartRepository.findAllByIdForUpdate(batch);
+			for(Cart cart : stored) {
+				Map<Long, Line> lines = linesByCart.get(cart.getId());
+				for(CartItem line : new ArrayList<>(cart.getItems())) {
+					if(!lines.containsKey(line.getItemId())) {
+						cart.removeItem(line.getItem(), line.getQuantity());
+					}
+				}
+				lines.forEach((itemId, line) -> {
+					Item item = items.get(itemId);
+					if(item == null) {
+						log.error("Item {} of cart {} no longer exists, it is left out of the stored cart", itemId, cart.getId());
+					} else if(line.getUnitPrice() == null) {
+						cart.setQuantity(item, line.getQuantity());
+					} else {
+						cart.setLine(item, line.getQuantity(), line.getUnitPrice());
+					}
+				});
+			}
+			if(stored.size() < batch.size()) {
+				log.error("{} of {} carts to store no longer exist, their changes are dropped", batch.size() - stored.size(), batch.size());
+			}
+			return cartRepository.saveAll(stored);
+		});
+	}
+
+	private Object stripe(Long cartId) {
+		return stripes[(int) (cartId & (STRIPES - 1))];
+	}
+
+	private static Map<Long, Line> lines(Cart cart) {
+		Map<Long, Line> lines = new LinkedHashMap<>();
+		for(CartItem line : cart.getItems()) {
+			lines.put(line.getItemId(), new Line(line.getQuantity(), line.getUnitPrice()));
+		}
+		return lines;
+	}
+
+	// A cart in memory, replaced by every change and read under the lock of its stripe
+	private static class LiveCart {
+
+		private Cart cart;
+
+		private long touched;
+
+		LiveCart(Cart cart) {
+			this.cart = cart;
+			this.touched = System.currentTimeMillis();
+		}
+	}
+}
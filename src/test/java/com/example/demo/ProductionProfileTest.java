@@ -0,0 +1,97 @@
+package com.example.demo;
+
+import com.example.demo.controllers.OrderController;
+import com.example.demo.model.persistence.Item;
+import com.example.demo.model.persistence.repositories.ItemRepository;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.web.client.TestRestTemplate;
+import org.springframework.http.HttpEntity;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.context.TestPropertySource;
+import org.springframework.test.context.junit4.SpringRunner;
+
+import java.math.BigDecimal;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+
+// The prod profile against a file database of its own, and with no persistence context open while
+// responses are written. A lazy load that a handler left to the response would fail with a 500.
+@RunWith(SpringRunner.class)
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT)
+@ActiveProfiles("prod")
+@TestPropertySource(properties = "DATABASE_URL=jdbc:h2:file:./target/prod-profile-test/${random.uuid}")
+public class ProductionProfileTest {
+
+    @Autowired
+    private TestRestTemplate restTemplate;
+
+    @Autowired
+    private ItemRepository itemRepository;
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+
+    @Test
+    public void cart_and_order_are_returned_without_open_session_in_view() throws Exception {
+        // The prod profile does not run data.sql
+        assertEquals(0, itemRepository.count());
+        Item item = new Item();
+        item.setName("Round Widget");
+        item.setPrice(new BigDecimal("2.99"));
+        item.setDescription("A widget that is round");
+        item = itemRepository.save(item);
+
+        assertEquals(200, post("/api/user/create",
+                "{\"username\":\"prod\",\"password\":\"password1\",\"confirmPassword\":\"password1\"}", null).getStatusCodeValue());
+        String token = post("/login", "{\"username\":\"prod\",\"password\":\"password1\"}", null).getHeaders().getFirst(HttpHeaders.AUTHORIZATION);
+        assertNotNull(token);
+
+        ResponseEntity<String> cart = post("/api/cart/addToCart?expand=items",
+                "{\"username\":\"prod\",\"itemId\":" + item.getId() + ",\"quantity\":3}", token);
+        assertEquals(200, cart.getStatusCodeValue());
+        JsonNode cartJson = objectMapper.readTree(cart.getBody());
+        assertEquals(0, new BigDecimal("8.97").compareTo(cartJson.get("total").decimalValue()));
+        assertEquals("Round Widget", cartJson.get("items").get(0).get("item").get("name").asText());
+
+        ResponseEntity<String> order = post("/api/order/submit/prod", "", token);
+        assertEquals(200, order.getStatusCodeValue());
+        JsonNode lines = objectMapper.readTree(order.getBody()).get("items");
+        assertEquals(1, lines.size());
+        assertEquals(3, lines.get(0).get("quantity").asInt());
+
+        // A retried submission gets the stored order back, lines included
+        HttpHeaders keyed = new HttpHeaders();
+        keyed.set(HttpHeaders.AUTHORIZATION, token);
+        keyed.set(OrderController.IDEMPOTENCY_KEY_HEADER, "key-1");
+        ResponseEntity<String> first = restTemplate.postForEntity("/api/order/submit/prod", new HttpEntity<>(keyed), String.class);
+        ResponseEntity<String> replay = restTemplate.postForEntity("/api/order/submit/prod", new HttpEntity<>(keyed), String.class);
+        assertEquals(200, replay.getStatusCodeValue());
+        assertEquals(objectMapper.readTree(first.getBody()), objectMapper.readTree(replay.getBody()));
+        assertEquals(1, objectMapper.readTree(replay.getBody()).get("items").size());
+
+        HttpHeaders headers = new HttpHeaders();
+        headers.set(HttpHeaders.AUTHORIZATION, token);
+        ResponseEntity<String> history = restTemplate.exchange("/api/order/history/prod", HttpMethod.GET,
+                new HttpEntity<>(headers), String.class);
+        assertEquals(200, history.getStatusCodeValue());
+        assertEquals(2, objectMapper.readTree(history.getBody()).size());
+    }
+
+    private ResponseEntity<String> post(String path, String body, String token) {
+        HttpHeaders headers = new HttpHeaders();
+        headers.setContentType(MediaType.APPLICATION_JSON);
+        if (token != null) {
+            headers.set(HttpHeaders.AUTHORIZATION, token);
+        }
+        return restTemplate.postForEntity(path, new HttpEntity<>(body, headers), String.class);
+    }
+}
@@ -1,9 +1,25 @@
 package com.example.demo;
 
+import com.example.demo.catalog.CatalogSearchIndexTest;
+import com.example.demo.catalog.ItemCacheTest;
+import com.example.demo.controllers.CartConcurrencyTest;
 import com.example.demo.controllers.CartControllerTest;
 import com.example.demo.controllers.ItemControllerTest;
 import com.example.demo.controllers.OrderControllerTest;
 import com.example.demo.controllers.UserControllerTest;
+import com.example.demo.json.PrebuiltJsonHttpMessageConverterTest;
+import com.example.demo.logging.RequestEventLoggerTest;
+import com.example.demo.metrics.RepositoryMetricsAspectTest;
+import com.example.demo.model.persistence.migrations.CartTotalsReconciliationTest;
+import com.example.demo.model.persistence.migrations.LineItemMigrationTest;
+import com.example.demo.security.PrincipalResolverTest;
+import com.example.demo.security.TimedBCryptPasswordEncoderTest;
+import com.example.demo.security.UserDetailsServiceImplTest;
+import com.example.demo.security.VerifiedTokenCacheTest;
+import com.example.demo.services.OrderSubmissionServiceTest;
+import com.example.demo.services.PasswordHashingServiceTest;
+import com.example.demo.services.WriteBehindCartStoreTest;
+import com.example.demo.services.WriteBehindCartTest;
 import org.junit.runner.RunWith;
 import org.junit.runners.Suite;
 
@@ -12,7 +28,23 @@ import org.junit.runners.Suite;
         CartControllerTest.class,
         ItemControllerTest.class,
         OrderControllerTest.class,
-        UserControllerTest.class
+        UserControllerTest.class,
+        CatalogSearchIndexTest.class,
+        OrderSubmissionServiceTest.class,
+        PasswordHashingServiceTest.class,
+        PrincipalResolverTest.class,
+        PrebuiltJsonHttpMessageConverterTest.class,
+        RepositoryMetricsAspectTest.class,
+        RequestEventLoggerTest.class,
+        TimedBCryptPasswordEncoderTest.class,
+        UserDetailsServiceImplTest.class,
+        VerifiedTokenCacheTest.class,
+        WriteBehindCartStoreTest.class,
+        CartConcurrencyTest.class,
+        CartTotalsReconciliationTest.class,
+        ItemCacheTest.class,
+        LineItemMigrationTest.class,
+        WriteBehindCartTest.class
 })
 public class TestSuite {
 }
\ No newline at end of file
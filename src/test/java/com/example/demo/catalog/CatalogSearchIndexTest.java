@@ -0,0 +1,115 @@
+package com.example.demo.catalog;
+
+import com.example.demo.TestUtils;
+import com.example.demo.model.persistence.Item;
+import com.example.demo.model.persistence.repositories.ItemRepository;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.math.BigDecimal;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class CatalogSearchIndexTest {
+
+    private CatalogSearchIndex catalogSearchIndex;
+
+    @Before
+    public void setUp() {
+        catalogSearchIndex = new CatalogSearchIndex();
+        catalogSearchIndex.index(item(1, "Round Widget", "A widget that is round"));
+        catalogSearchIndex.index(item(2, "Square Widget", "A widget that is square"));
+        catalogSearchIndex.index(item(3, "Round Table", "A table for four, with a square base"));
+    }
+
+    @Test
+    public void tokenize_splits_on_non_alphanumeric_characters() throws Exception {
+        assertEquals(Arrays.asList("a", "widget", "round", "2"), CatalogSearchIndex.tokenize("A widget--Round, 2!"));
+    }
+
+    @Test
+    public void search_matches_every_token() throws Exception {
+        assertEquals(Arrays.asList(1L), ids(catalogSearchIndex.search("round widget", 10)));
+        assertEquals(Arrays.asList(2L), ids(catalogSearchIndex.search("WIDGET square", 10)));
+        assertTrue(catalogSearchIndex.search("round chair", 10).isEmpty());
+    }
+
+    @Test
+    public void search_matches_prefixes() throws Exception {
+        assertEquals(Arrays.asList(1L), ids(catalogSearchIndex.search("rou wid", 10)));
+        assertEquals(Arrays.asList(3L), ids(catalogSearchIndex.search("tab", 10)));
+    }
+
+    @Test
+    public void search_ranks_name_matches_first() throws Exception {
+        // "square" is the name of item 2 and only in the description of item 3
+        assertEquals(Arrays.asList(2L, 3L), ids(catalogSearchIndex.search("square", 10)));
+        assertEquals(Arrays.asList(2L), ids(catalogSearchIndex.search("square", 1)));
+    }
+
+    @Test
+    public void index_follows_item_changes() throws Exception {
+        catalogSearchIndex.index(item(1, "Oval Widget", "A widget that is oval"));
+        assertTrue(catalogSearchIndex.search("round widget", 10).isEmpty());
+        assertEquals(Arrays.asList(1L), ids(catalogSearchIndex.search("oval", 10)));
+
+        catalogSearchIndex.remove(2L);
+        assertTrue(catalogSearchIndex.search("square widget", 10).isEmpty());
+        assertEquals(2, catalogSearchIndex.size());
+    }
+
+    @Test
+    public void short_prefix_keeps_the_best_of_many_terms() throws Exception {
+        // More terms start with "pa" than are expanded, the one in a name sorts last
+        for (int i = 0; i < CatalogSearchIndex.MAX_PREFIX_EXPANSIONS + 72; i++) {
+            catalogSearchIndex.index(item(100 + i, "Lamp " + i, String.format("pa%03d", i)));
+        }
+        catalogSearchIndex.index(item(1000, "Pazzz Lamp", "A lamp"));
+
+        assertEquals(Arrays.asList(1000L), ids(catalogSearchIndex.search("pa", 1)));
+        assertEquals(10, catalogSearchIndex.search("pa", 10).size());
+    }
+
+    @Test
+    public void index_is_built_from_the_catalog_snapshot() throws Exception {
+        ItemRepository itemRepository = mock(ItemRepository.class);
+        when(itemRepository.findAll()).thenReturn(Collections.singletonList(item(1, "Round Widget", "A widget that is round")));
+        Catalog catalog = new Catalog();
+        TestUtils.injectObjects(catalog, "itemRepository", itemRepository);
+        TestUtils.injectObjects(catalog, "objectMapper", new ObjectMapper());
+        TestUtils.injectObjects(catalog, "searchIndex", catalogSearchIndex);
+
+        catalog.rebuild();
+
+        // The index holds the catalog's copies, not the entities that were read
+        assertEquals(1, catalogSearchIndex.size());
+        assertSame(catalog.current().getItem(1L), catalogSearchIndex.search("round", 10).get(0));
+
+        catalog.onItemChanged(new ItemChangedEvent(item(4, "Oval Widget", "A widget that is oval"), ItemChangedEvent.Type.CREATED));
+        assertSame(catalog.current().getItem(4L), catalogSearchIndex.search("oval", 10).get(0));
+        catalog.onItemChanged(new ItemChangedEvent(item(1, null, null), ItemChangedEvent.Type.DELETED));
+        assertTrue(catalogSearchIndex.search("round", 10).isEmpty());
+    }
+
+    private static List<Long> ids(List<Item> items) {
+        return items.stream().map(Item::getId).collect(Collectors.toList());
+    }
+
+    private static Item item(long id, String name, String description) {
+        Item item = new Item();
+        item.setId(id);
+        item.setName(name);
+        item.setPrice(BigDecimal.ONE);
+        item.setDescription(description);
+        return item;
+    }
+}
@@ -0,0 +1,62 @@
+package com.example.demo.catalog;
+
+import com.example.demo.model.persistence.Item;
+import com.example.demo.model.persistence.repositories.ItemRepository;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.hibernate.SessionFactory;
+import org.hibernate.stat.Statistics;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.context.junit4.SpringRunner;
+
+import javax.persistence.EntityManagerFactory;
+import java.math.BigDecimal;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+// With Hibernate statistics, which are off by default, to count the cache hits and misses
+@RunWith(SpringRunner.class)
+@SpringBootTest(properties = "hibernate.statistics=true")
+public class ItemCacheTest {
+
+    @Autowired
+    private ItemRepository itemRepository;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    @Autowired
+    private EntityManagerFactory entityManagerFactory;
+
+    @Test
+    public void items_are_read_from_the_second_level_cache_until_they_change() throws Exception {
+        Statistics statistics = entityManagerFactory.unwrap(SessionFactory.class).getStatistics();
+        Item item = new Item();
+        item.setName("Cached Widget");
+        item.setPrice(BigDecimal.valueOf(4.99));
+        item.setDescription("A widget that is cached");
+        item = itemRepository.save(item);
+
+        // Each lookup runs in an entity manager of its own, so only the first one can read the database
+        statistics.clear();
+        itemRepository.findById(item.getId()).get();
+        itemRepository.findById(item.getId()).get();
+        assertEquals(1, statistics.getSecondLevelCacheMissCount());
+        assertEquals(1, statistics.getSecondLevelCacheHitCount());
+        assertTrue(meterRegistry.get("hibernate.second.level.cache.requests")
+                .tag("result", "hit").functionCounter().count() > 0);
+
+        // An update replaces the cached item, the next lookup sees the new price without a database read
+        // Items are versioned, the updated copy is the one to delete
+        item.setPrice(BigDecimal.valueOf(5.49));
+        item = itemRepository.save(item);
+        assertEquals(0, BigDecimal.valueOf(5.49).compareTo(itemRepository.findById(item.getId()).get().getPrice()));
+        assertEquals(1, statistics.getSecondLevelCacheMissCount());
+
+        itemRepository.delete(item);
+        assertTrue(!itemRepository.findById(item.getId()).isPresent());
+    }
+}
@@ -0,0 +1,114 @@
+package com.example.demo.controllers;
+
+import com.example.demo.model.persistence.Cart;
+import com.example.demo.model.persistence.CartItem;
+import com.example.demo.model.persistence.User;
+import com.example.demo.model.persistence.repositories.CartRepository;
+import com.example.demo.model.persistence.repositories.UserRepository;
+import com.example.demo.model.requests.ModifyCartRequest;
+import com.example.demo.model.responses.CartSummary;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.http.ResponseEntity;
+import org.springframework.test.context.junit4.SpringRunner;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+// Many threads add to the same cart at once. Every addition that was answered with 200 has to be in
+// the stored cart and its total, none of them may be overwritten by a concurrent one.
+@RunWith(SpringRunner.class)
+@SpringBootTest
+public class CartConcurrencyTest {
+
+    private static final int THREADS = 16;
+
+    private static final int ADDITIONS_PER_THREAD = 50;
+
+    @Autowired
+    private CartController cartController;
+
+    @Autowired
+    private UserRepository userRepository;
+
+    @Autowired
+    private CartRepository cartRepository;
+
+    @Autowired
+    private TransactionTemplate transactionTemplate;
+
+    @Test
+    public void concurrent_additions_are_not_lost() throws Exception {
+        User user = transactionTemplate.execute(status -> {
+            Cart cart = cartRepository.save(new Cart());
+            User created = new User();
+            // Unique, the test also runs a second time in TestSuite against the same database
+            created.setUsername("concurrent-" + UUID.randomUUID());
+            created.setPassword("unused");
+            created.setCart(cart);
+            return userRepository.save(created);
+        });
+
+        // Items 1 and 2 of data.sql, the first addition of each also races to insert its line item
+        AtomicInteger[] added = { new AtomicInteger(), new AtomicInteger() };
+        AtomicInteger conflicts = new AtomicInteger();
+        CountDownLatch start = new CountDownLatch(1);
+        ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+        List<Future<?>> futures = new ArrayList<>();
+        for (int t = 0; t < THREADS; t++) {
+            int thread = t;
+            futures.add(executor.submit(() -> {
+                start.await();
+                for (int i = 0; i < ADDITIONS_PER_THREAD; i++) {
+                    int item = (thread + i) % 2;
+                    ModifyCartRequest request = new ModifyCartRequest();
+                    request.setUsername(user.getUsername());
+                    request.setItemId(item + 1);
+                    request.setQuantity(1);
+                    ResponseEntity<CartSummary> response = cartController.addTocart(request, null);
+                    if (response.getStatusCodeValue() == 200) {
+                        added[item].incrementAndGet();
+                    } else {
+                        assertEquals(409, response.getStatusCodeValue());
+                        conflicts.incrementAndGet();
+                    }
+                }
+                return null;
+            }));
+        }
+        start.countDown();
+        for (Future<?> future : futures) {
+            future.get(2, TimeUnit.MINUTES);
+        }
+        executor.shutdown();
+
+        transactionTemplate.execute(status -> {
+            Cart cart = cartRepository.findById(user.getCart().getId()).get();
+            CartItem first = cart.getLineItem(1L);
+            CartItem second = cart.getLineItem(2L);
+            assertEquals(added[0].get(), first.getQuantity());
+            assertEquals(added[1].get(), second.getQuantity());
+            BigDecimal expectedTotal = first.getUnitPrice().multiply(BigDecimal.valueOf(added[0].get()))
+                    .add(second.getUnitPrice().multiply(BigDecimal.valueOf(added[1].get())));
+            assertEquals(0, expectedTotal.compareTo(cart.getTotal()));
+            return null;
+        });
+        assertEquals(THREADS * ADDITIONS_PER_THREAD, added[0].get() + added[1].get() + conflicts.get());
+        // Additions of the same cart wait for each other on its row, hardly any should give up with 409
+        assertTrue("too many conflicts: " + conflicts.get(), conflicts.get() < THREADS * ADDITIONS_PER_THREAD / 10);
+    }
+}
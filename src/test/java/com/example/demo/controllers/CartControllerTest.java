@@ -1,26 +1,54 @@
 package com.example.demo.controllers;
 
 import com.example.demo.TestUtils;
+import com.example.demo.catalog.Catalog;
+import com.example.demo.catalog.CatalogSearchIndex;
+import com.example.demo.catalog.ItemExpander;
+import com.example.demo.logging.RequestEventLogger;
 import com.example.demo.model.persistence.Cart;
 import com.example.demo.model.persistence.Item;
 import com.example.demo.model.persistence.User;
 import com.example.demo.model.persistence.repositories.CartRepository;
 import com.example.demo.model.persistence.repositories.ItemRepository;
 import com.example.demo.model.persistence.repositories.UserRepository;
+import com.example.demo.model.requests.BatchCartRequest;
+import com.example.demo.model.requests.CartOperation;
 import com.example.demo.model.requests.ModifyCartRequest;
+import com.example.demo.model.responses.CartSummary;
+import com.example.demo.model.responses.LineSummary;
+import com.example.demo.security.PrincipalResolver;
+import com.example.demo.security.UserPrincipal;
+import com.example.demo.services.CartUpdateService;
+import com.example.demo.services.WriteBehindCartStore;
+import com.fasterxml.jackson.databind.ObjectMapper;
 import org.junit.Before;
 import org.junit.Test;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
+import org.springframework.orm.ObjectOptimisticLockingFailureException;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.setup.MockMvcBuilders;
+import org.springframework.transaction.support.TransactionTemplate;
 
 import java.math.BigDecimal;
-import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.RejectedExecutionException;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
 
 public class CartControllerTest {
 
@@ -32,14 +60,36 @@ public class CartControllerTest {
 
     private ItemRepository itemRepository = mock(ItemRepository.class);
 
+    private Catalog catalog = new Catalog();
+
+    private CartUpdateService cartUpdateService;
+
     // EMG - The user repository, the cart repository, and the item repository are injected
-    // into the cartController object
+    // into the cartController object. The cart repository is used through a CartUpdateService, and
+    // the items are read from a catalog loaded from the item repository
     @Before
     public void setUp() {
         cartController = new CartController();
-        TestUtils.injectObjects(cartController, "userRepository", userRepository);
-        TestUtils.injectObjects(cartController, "cartRepository", cartRepository);
-        TestUtils.injectObjects(cartController, "itemRepository", itemRepository);
+        PrincipalResolver principalResolver = new PrincipalResolver();
+        TestUtils.injectObjects(principalResolver, "userRepository", userRepository);
+        TestUtils.injectObjects(principalResolver, "cacheSpec", "maximumSize=10");
+        principalResolver.init();
+        TestUtils.injectObjects(cartController, "principalResolver", principalResolver);
+        cartUpdateService = new CartUpdateService();
+        TestUtils.injectObjects(cartUpdateService, "cartRepository", cartRepository);
+        TestUtils.injectObjects(cartUpdateService, "transactionTemplate",
+                new TransactionTemplate(mock(PlatformTransactionManager.class)));
+        TestUtils.injectObjects(cartUpdateService, "maxAttempts", 3);
+        when(cartRepository.save(any())).thenAnswer(invocation -> invocation.getArgument(0));
+        TestUtils.injectObjects(cartController, "cartUpdateService", cartUpdateService);
+        TestUtils.injectObjects(catalog, "itemRepository", itemRepository);
+        TestUtils.injectObjects(catalog, "objectMapper", new ObjectMapper());
+        TestUtils.injectObjects(catalog, "searchIndex", new CatalogSearchIndex());
+        TestUtils.injectObjects(cartController, "catalog", catalog);
+        ItemExpander itemExpander = new ItemExpander();
+        TestUtils.injectObjects(itemExpander, "catalog", catalog);
+        TestUtils.injectObjects(cartController, "itemExpander", itemExpander);
+        TestUtils.injectObjects(cartController, "requestEvents", new RequestEventLogger());
     }
 
     @Test
@@ -60,7 +110,8 @@ public class CartControllerTest {
         user.setId(0);
         user.setPassword("testPassword");
 
-        when(userRepository.findByUsername("test")).thenReturn(user);
+        when(userRepository.findPrincipalByUsername("test")).thenReturn(principal(user));
+        when(cartRepository.findByIdForUpdate((long) 0)).thenReturn(Optional.of(cart));
 
         // EMG - Thirdly, an item setup is completed
         Item item = new Item();
@@ -69,25 +120,125 @@ public class CartControllerTest {
         item.setPrice(new BigDecimal(2.99));
         item.setDescription("This is a testItem description");
 
-        when(itemRepository.findById((long) 0)).thenReturn(java.util.Optional.of(item));
+        addToCatalog(item);
 
         // EMG - The method under test is called
-        final ResponseEntity<Cart> response = cartController.addTocart(modifyCartRequest);
+        final ResponseEntity<CartSummary> response = cartController.addTocart(modifyCartRequest, null);
 
         // EMG - Assertions are made
         assertNotNull(response);
         assertEquals(200,response.getStatusCodeValue());
 
-        Cart actualCart = response.getBody();
+        CartSummary actualCart = response.getBody();
         assertNotNull(actualCart);
         assertEquals(cart.getId(), actualCart.getId());
-        List<Item> itemsArray = Arrays.asList(new Item[modifyCartRequest.getQuantity()]);
-        for (int i=0; i < itemsArray.size(); i++) {
-            itemsArray.set(i, item);
-        }
-        assertEquals(itemsArray, actualCart.getItems());
-        assertEquals(cart.getUser(), actualCart.getUser());
-        assertEquals(new BigDecimal(8.97), actualCart.getTotal());
+        // The three units are held by a single line, which only refers to the item by its id
+        assertEquals(1, actualCart.getItems().size());
+        LineSummary line = line(actualCart, item.getId());
+        assertNotNull(line);
+        assertEquals(modifyCartRequest.getQuantity(), line.getQuantity());
+        assertEquals(item.getPrice(), line.getUnitPrice());
+        assertNull(line.getItem());
+        assertEquals(new BigDecimal("8.97"), actualCart.getTotal());
+    }
+
+    @Test
+    public void add_to_cart_retried_after_concurrent_update() throws Exception {
+        ModifyCartRequest modifyCartRequest = new ModifyCartRequest();
+        modifyCartRequest.setUsername("test");
+        modifyCartRequest.setItemId(0);
+        modifyCartRequest.setQuantity(3);
+
+        User user = new User();
+        user.setUsername("test");
+        Cart cart = new Cart();
+        cart.setId((long) 0);
+        user.setCart(cart);
+        when(userRepository.findPrincipalByUsername("test")).thenReturn(principal(user));
+
+        Item item = new Item();
+        item.setId((long) 0);
+        item.setName("testItem");
+        item.setPrice(new BigDecimal("2.99"));
+        addToCatalog(item);
+
+        // Another request stored the cart with one unit first, so the first save fails and the
+        // addition is applied again to the stored cart
+        Cart storedCart = new Cart();
+        storedCart.setId((long) 0);
+        storedCart.addItem(item, 1);
+        when(cartRepository.findByIdForUpdate((long) 0)).thenReturn(Optional.of(cart), Optional.of(storedCart));
+        when(cartRepository.save(cart)).thenThrow(new ObjectOptimisticLockingFailureException(Cart.class, 0L));
+
+        final ResponseEntity<CartSummary> response = cartController.addTocart(modifyCartRequest, null);
+
+        assertEquals(200, response.getStatusCodeValue());
+        assertEquals(4, line(response.getBody(), item.getId()).getQuantity());
+        assertEquals(4, storedCart.getLineItem(item.getId()).getQuantity());
+        assertEquals(new BigDecimal("11.96"), storedCart.getTotal());
+        verify(cartRepository).save(storedCart);
+    }
+
+    @Test
+    public void add_to_cart_conflict_after_max_attempts() throws Exception {
+        ModifyCartRequest modifyCartRequest = new ModifyCartRequest();
+        modifyCartRequest.setUsername("test");
+        modifyCartRequest.setItemId(0);
+        modifyCartRequest.setQuantity(3);
+
+        User user = new User();
+        user.setUsername("test");
+        Cart cart = new Cart();
+        cart.setId((long) 0);
+        user.setCart(cart);
+        when(userRepository.findPrincipalByUsername("test")).thenReturn(principal(user));
+
+        Item item = new Item();
+        item.setId((long) 0);
+        item.setPrice(new BigDecimal("2.99"));
+        addToCatalog(item);
+
+        when(cartRepository.findByIdForUpdate((long) 0)).thenAnswer(invocation -> {
+            Cart storedCart = new Cart();
+            storedCart.setId((long) 0);
+            return Optional.of(storedCart);
+        });
+        when(cartRepository.save(any())).thenThrow(new ObjectOptimisticLockingFailureException(Cart.class, 0L));
+
+        final ResponseEntity<CartSummary> response = cartController.addTocart(modifyCartRequest, null);
+
+        assertEquals(409, response.getStatusCodeValue());
+        verify(cartRepository, times(3)).save(any());
+    }
+
+    @Test
+    public void add_to_cart_rejected_while_cart_store_stops() throws Exception {
+        ModifyCartRequest modifyCartRequest = new ModifyCartRequest();
+        modifyCartRequest.setUsername("test");
+        modifyCartRequest.setItemId(0);
+        modifyCartRequest.setQuantity(3);
+
+        User user = new User();
+        user.setUsername("test");
+        Cart cart = new Cart();
+        cart.setId((long) 0);
+        user.setCart(cart);
+        when(userRepository.findPrincipalByUsername("test")).thenReturn(principal(user));
+
+        Item item = new Item();
+        item.setId((long) 0);
+        item.setPrice(new BigDecimal("2.99"));
+        addToCatalog(item);
+
+        // A write-behind store that is stopping
+        WriteBehindCartStore writeBehindCartStore = mock(WriteBehindCartStore.class);
+        when(writeBehindCartStore.update(any(), any())).thenThrow(new RejectedExecutionException("stopping"));
+        TestUtils.injectObjects(cartUpdateService, "writeBehindCartStore", writeBehindCartStore);
+
+        final ResponseEntity<CartSummary> response = cartController.addTocart(modifyCartRequest, null);
+
+        assertEquals(503, response.getStatusCodeValue());
+        assertEquals("1", response.getHeaders().getFirst("Retry-After"));
     }
 
     @Test
@@ -101,10 +252,10 @@ public class CartControllerTest {
         // EMG - Secondly, a user setup is completed, where the user is null.
         User user = new User();
 
-        when(userRepository.findByUsername("test")).thenReturn(user);
+        when(userRepository.findPrincipalByUsername("test")).thenReturn(principal(user));
 
         // EMG - The method under test is called
-        final ResponseEntity<Cart> response = cartController.addTocart(modifyCartRequest);
+        final ResponseEntity<CartSummary> response = cartController.addTocart(modifyCartRequest, null);
 
         // EMG - Assertions are made
         assertNotNull(response);
@@ -130,15 +281,16 @@ public class CartControllerTest {
         user.setId(0);
         user.setPassword("testPassword");
 
-        when(userRepository.findByUsername("test")).thenReturn(user);
+        when(userRepository.findPrincipalByUsername("test")).thenReturn(principal(user));
 
         // EMG - Thirdly, an item setup is completed
         Item item = new Item();
+        item.setId((long) 0);
 
-        when(itemRepository.findById((long) 0)).thenReturn(java.util.Optional.of(item));
+        addToCatalog(item);
 
         // EMG - The method under test is called
-        final ResponseEntity<Cart> response = cartController.addTocart(modifyCartRequest);
+        final ResponseEntity<CartSummary> response = cartController.addTocart(modifyCartRequest, null);
 
         // EMG - Assertions are made
         assertNotNull(response);
@@ -171,35 +323,27 @@ public class CartControllerTest {
         item.setPrice(BigDecimal.valueOf(2.99));
         item.setDescription("This is a testItem description");
 
-        when(itemRepository.findById((long) 0)).thenReturn(java.util.Optional.of(item));
+        addToCatalog(item);
 
         // EMG - Note that a cartController.addTocart has been previously applied
-        List<Item> itemsArray = new ArrayList<>();
-        for (int i=0; i < 3; i++) {
-            itemsArray.add(item);
-        }
-        cart.setItems(itemsArray);
-        cart.setTotal(BigDecimal.valueOf(8.97));
+        cart.addItem(item, 3);
         user.setCart(cart);
 
-        when(userRepository.findByUsername("test")).thenReturn(user);
+        when(userRepository.findPrincipalByUsername("test")).thenReturn(principal(user));
+        when(cartRepository.findByIdForUpdate((long) 0)).thenReturn(Optional.of(cart));
 
         // EMG - The method under test is called
-        final ResponseEntity<Cart> response = cartController.removeFromcart(modifyCartRequest);
+        final ResponseEntity<CartSummary> response = cartController.removeFromcart(modifyCartRequest, null);
 
         // EMG - Assertions are made
         assertNotNull(response);
         assertEquals(200,response.getStatusCodeValue());
 
-        Cart actualCart = response.getBody();
+        CartSummary actualCart = response.getBody();
         assertNotNull(actualCart);
         assertEquals(cart.getId(), actualCart.getId());
-        List<Item> expectedItemsArray = Arrays.asList(new Item[2]);
-        for (int i=0; i < expectedItemsArray.size(); i++) {
-            expectedItemsArray.set(i, item);
-        }
-        assertEquals(expectedItemsArray, actualCart.getItems());
-        assertEquals(cart.getUser(), actualCart.getUser());
+        assertEquals(1, actualCart.getItems().size());
+        assertEquals(2, line(actualCart, item.getId()).getQuantity());
         assertEquals(BigDecimal.valueOf(5.98), actualCart.getTotal());
     }
 
@@ -214,10 +358,10 @@ public class CartControllerTest {
         // EMG - Secondly, a user setup is completed, where the user is null.
         User user = new User();
 
-        when(userRepository.findByUsername("test")).thenReturn(user);
+        when(userRepository.findPrincipalByUsername("test")).thenReturn(principal(user));
 
         // EMG - The method under test is called
-        final ResponseEntity<Cart> response = cartController.removeFromcart(modifyCartRequest);
+        final ResponseEntity<CartSummary> response = cartController.removeFromcart(modifyCartRequest, null);
 
         // EMG - Assertions are made
         assertNotNull(response);
@@ -243,19 +387,217 @@ public class CartControllerTest {
         user.setId(0);
         user.setPassword("testPassword");
 
-        when(userRepository.findByUsername("test")).thenReturn(user);
+        when(userRepository.findPrincipalByUsername("test")).thenReturn(principal(user));
 
         // EMG - Thirdly, an item setup is completed
         Item item = new Item();
+        item.setId((long) 0);
 
-        when(itemRepository.findById((long) 0)).thenReturn(java.util.Optional.of(item));
+        addToCatalog(item);
 
         // EMG - The method under test is called
-        final ResponseEntity<Cart> response = cartController.addTocart(modifyCartRequest);
+        final ResponseEntity<CartSummary> response = cartController.addTocart(modifyCartRequest, null);
 
         // EMG - Assertions are made
         assertNotNull(response);
         assertEquals(404,response.getStatusCodeValue());
 
     }
+
+    @Test
+    public void batch_update_happy_path() throws Exception {
+        // Firstly, a user with an empty cart, and two items are set up
+        User user = new User();
+        user.setUsername("test");
+        Cart cart = new Cart();
+        cart.setId((long) 0);
+        cart.setUser(user);
+        user.setCart(cart);
+
+        when(userRepository.findPrincipalByUsername("test")).thenReturn(principal(user));
+        when(cartRepository.findByIdForUpdate((long) 0)).thenReturn(Optional.of(cart));
+
+        Item roundWidget = new Item();
+        roundWidget.setId((long) 0);
+        roundWidget.setPrice(BigDecimal.valueOf(2.99));
+        Item squareWidget = new Item();
+        squareWidget.setId((long) 1);
+        squareWidget.setPrice(BigDecimal.valueOf(1.99));
+
+        addToCatalog(roundWidget, squareWidget);
+
+        // Secondly, a batch adding 3 round widgets, setting 4 square widgets, and removing one
+        // round widget is set up
+        BatchCartRequest batchCartRequest = new BatchCartRequest();
+        batchCartRequest.setUsername("test");
+        batchCartRequest.setOperations(Arrays.asList(
+                operation(CartOperation.Type.ADD, 0, 3),
+                operation(CartOperation.Type.SET, 1, 4),
+                operation(CartOperation.Type.REMOVE, 0, 1)));
+
+        // The method under test is called
+        final ResponseEntity<CartSummary> response = cartController.batchUpdate(batchCartRequest, null);
+
+        // Assertions are made, the items are resolved from the catalog and the cart is saved once
+        assertNotNull(response);
+        assertEquals(200,response.getStatusCodeValue());
+
+        CartSummary actualCart = response.getBody();
+        assertNotNull(actualCart);
+        assertEquals(2, line(actualCart, 0L).getQuantity());
+        assertEquals(4, line(actualCart, 1L).getQuantity());
+        assertEquals(BigDecimal.valueOf(13.94), actualCart.getTotal());
+        verify(cartRepository, times(1)).save(cart);
+    }
+
+    @Test
+    public void batch_update_item_not_found() throws Exception {
+        User user = new User();
+        user.setUsername("test");
+        Cart cart = new Cart();
+        user.setCart(cart);
+
+        when(userRepository.findPrincipalByUsername("test")).thenReturn(principal(user));
+
+        Item roundWidget = new Item();
+        roundWidget.setId((long) 0);
+        roundWidget.setPrice(BigDecimal.valueOf(2.99));
+
+        // Only one of the two requested items exists
+        addToCatalog(roundWidget);
+
+        BatchCartRequest batchCartRequest = new BatchCartRequest();
+        batchCartRequest.setUsername("test");
+        batchCartRequest.setOperations(Arrays.asList(
+                operation(CartOperation.Type.ADD, 0, 3),
+                operation(CartOperation.Type.ADD, 1, 1)));
+
+        // The method under test is called
+        final ResponseEntity<CartSummary> response = cartController.batchUpdate(batchCartRequest, null);
+
+        // Assertions are made, and nothing is applied to the cart
+        assertNotNull(response);
+        assertEquals(404,response.getStatusCodeValue());
+        assertTrue(cart.getItems().isEmpty());
+        verify(cartRepository, never()).save(any());
+    }
+
+    @Test
+    public void batch_update_too_many_operations_is_rejected() throws Exception {
+        StringBuilder operations = new StringBuilder();
+        for (int i = 0; i <= BatchCartRequest.MAX_OPERATIONS; i++) {
+            operations.append(i == 0 ? "" : ",").append("{\"type\":\"ADD\",\"itemId\":0,\"quantity\":1}");
+        }
+
+        mockMvc().perform(post("/api/cart/batch")
+                .contentType(MediaType.APPLICATION_JSON)
+                .content("{\"username\":\"test\",\"operations\":[" + operations + "]}"))
+                .andExpect(status().isBadRequest());
+        verify(userRepository, never()).findPrincipalByUsername(any());
+        verify(cartRepository, never()).save(any());
+    }
+
+    @Test
+    public void add_to_cart_expands_items() throws Exception {
+        ModifyCartRequest modifyCartRequest = new ModifyCartRequest();
+        modifyCartRequest.setUsername("test");
+        modifyCartRequest.setItemId(0);
+        modifyCartRequest.setQuantity(2);
+
+        User user = new User();
+        user.setUsername("test");
+        Cart cart = new Cart();
+        cart.setId((long) 0);
+        user.setCart(cart);
+        when(userRepository.findPrincipalByUsername("test")).thenReturn(principal(user));
+        when(cartRepository.findByIdForUpdate((long) 0)).thenReturn(Optional.of(cart));
+
+        Item item = new Item();
+        item.setId((long) 0);
+        item.setName("testItem");
+        item.setPrice(new BigDecimal("2.99"));
+        item.setDescription("This is a testItem description");
+        addToCatalog(item);
+
+        // Asked for with ?expand=items, the lines carry the whole item
+        final ResponseEntity<CartSummary> response = cartController.addTocart(modifyCartRequest, "items");
+
+        assertEquals(200, response.getStatusCodeValue());
+        Item expanded = line(response.getBody(), 0L).getItem();
+        assertSame(catalog.current().getItem(0L), expanded);
+        assertEquals(item.getName(), expanded.getName());
+        assertEquals(item.getDescription(), expanded.getDescription());
+    }
+
+    @Test
+    public void add_to_cart_quantity_is_capped() throws Exception {
+        ModifyCartRequest modifyCartRequest = new ModifyCartRequest();
+        modifyCartRequest.setUsername("test");
+        modifyCartRequest.setItemId(0);
+        modifyCartRequest.setQuantity(Cart.MAX_QUANTITY);
+
+        Item item = new Item();
+        item.setId((long) 0);
+        item.setPrice(new BigDecimal("2.99"));
+        addToCatalog(item);
+
+        // A cart that already holds all but one of the units a line can hold
+        User user = new User();
+        user.setUsername("test");
+        Cart cart = new Cart();
+        cart.setId((long) 0);
+        cart.addItem(item, Cart.MAX_QUANTITY - 1);
+        user.setCart(cart);
+        when(userRepository.findPrincipalByUsername("test")).thenReturn(principal(user));
+        when(cartRepository.findByIdForUpdate((long) 0)).thenReturn(Optional.of(cart));
+
+        final ResponseEntity<CartSummary> response = cartController.addTocart(modifyCartRequest, null);
+
+        // Only the one unit that fits is added, to the quantity and to the total
+        assertEquals(200, response.getStatusCodeValue());
+        assertEquals(Cart.MAX_QUANTITY, line(response.getBody(), 0L).getQuantity());
+        assertEquals(new BigDecimal("2.99").multiply(BigDecimal.valueOf(Cart.MAX_QUANTITY)), response.getBody().getTotal());
+        assertEquals(Cart.MAX_QUANTITY, cart.getTotals().getUnits());
+    }
+
+    @Test
+    public void add_to_cart_quantity_above_max_is_rejected() throws Exception {
+        // Validated as the request is read, before the handler runs
+        mockMvc().perform(post("/api/cart/addToCart")
+                .contentType(MediaType.APPLICATION_JSON)
+                .content("{\"username\":\"test\",\"itemId\":0,\"quantity\":" + (Cart.MAX_QUANTITY + 1) + "}"))
+                .andExpect(status().isBadRequest());
+        verify(userRepository, never()).findPrincipalByUsername(any());
+    }
+
+    // The catalog snapshot is loaded again, holding the given items
+    private void addToCatalog(Item... items) {
+        when(itemRepository.findAll()).thenReturn(Arrays.asList(items));
+        catalog.rebuild();
+    }
+
+    private static LineSummary line(CartSummary cart, Long itemId) {
+        return cart.getItems().stream()
+                .filter(line -> line.getItemId().equals(itemId))
+                .findFirst()
+                .orElse(null);
+    }
+
+    private static CartOperation operation(CartOperation.Type type, long itemId, int quantity) {
+        CartOperation operation = new CartOperation();
+        operation.setType(type);
+        operation.setItemId(itemId);
+        operation.setQuantity(quantity);
+        return operation;
+    }
+
+    // The controller behind Spring MVC, with its request body validation
+    private MockMvc mockMvc() {
+        return MockMvcBuilders.standaloneSetup(cartController).build();
+    }
+
+    // The principal the resolver reads for the user
+    private static UserPrincipal principal(User user) {
+        return new UserPrincipal(user.getId(), user.getUsername(), user.getCart() == null ? null : user.getCart().getId());
+    }
 }
@@ -1,19 +1,38 @@
 package com.example.demo.controllers;
 
 import com.example.demo.TestUtils;
+import com.example.demo.catalog.Catalog;
+import com.example.demo.catalog.CatalogMarker;
+import com.example.demo.catalog.CatalogSearchIndex;
+import com.example.demo.catalog.ItemChangedEvent;
+import com.example.demo.logging.RequestEventLogger;
 import com.example.demo.model.persistence.Item;
 import com.example.demo.model.persistence.repositories.ItemRepository;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
 import org.junit.Before;
 import org.junit.Test;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
+import org.springframework.mock.web.MockHttpServletResponse;
+
+import javax.persistence.EntityManager;
 
 import java.math.BigDecimal;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
 public class ItemControllerTest  {
@@ -22,12 +41,30 @@ public class ItemControllerTest  {
 
     private ItemRepository itemRepository = mock(ItemRepository.class);
 
+    private EntityManager entityManager = mock(EntityManager.class);
+
+    private CatalogSearchIndex catalogSearchIndex = mock(CatalogSearchIndex.class);
+
+    private Catalog catalog = new Catalog();
+
+    private ObjectMapper objectMapper = new ObjectMapper();
+
     // EMG - The user repository, and the order repository are injected
     // into the orderController object
     @Before
     public void setUp() {
         itemController = new ItemController();
         TestUtils.injectObjects(itemController, "itemRepository", itemRepository);
+        TestUtils.injectObjects(itemController, "objectMapper", objectMapper);
+        TestUtils.injectObjects(itemController, "entityManager", entityManager);
+        TestUtils.injectObjects(itemController, "catalogSearchIndex", catalogSearchIndex);
+        TestUtils.injectObjects(catalog, "itemRepository", itemRepository);
+        TestUtils.injectObjects(catalog, "objectMapper", objectMapper);
+        TestUtils.injectObjects(catalog, "searchIndex", catalogSearchIndex);
+        TestUtils.injectObjects(itemController, "catalog", catalog);
+        TestUtils.injectObjects(itemController, "defaultPageSize", 2);
+        TestUtils.injectObjects(itemController, "maxPageSize", 10);
+        TestUtils.injectObjects(itemController, "requestEvents", new RequestEventLogger());
     }
 
     @Test
@@ -41,22 +78,169 @@ public class ItemControllerTest  {
         // EMG - It is assumed that two items exist in the system
         List<Item> expectedItems = new ArrayList<>();
         for (int i=0; i < 2; i++) {
-            item.setId((long) i);
-            expectedItems.add(item);
+            Item copy = copy(item);
+            copy.setId((long) i);
+            expectedItems.add(copy);
         }
-
-        when(itemRepository.findAll()).thenReturn(expectedItems);
+        loadCatalog(expectedItems);
 
         // EMG - The method under test is called
-        final ResponseEntity<List<Item>> response = itemController.getItems();
+        final ResponseEntity<byte[]> response = itemController.getItems(null, null, null);
 
-        // EMG - Assertions are made
+        // EMG - Assertions are made, the page is read from the catalog without a query
         assertNotNull(response);
         assertEquals(200,response.getStatusCodeValue());
+        assertEquals(MediaType.APPLICATION_JSON_UTF8, response.getHeaders().getContentType());
+        assertNull(response.getHeaders().getFirst(ItemController.NEXT_CURSOR_HEADER));
 
-        List<Item> actualItems = response.getBody();
-        assertNotNull(actualItems);
+        List<Item> actualItems = items(response);
         assertEquals(expectedItems, actualItems);
+        assertEquals(item.getDescription(), actualItems.get(1).getDescription());
+        verify(itemRepository, times(1)).findAll();
+    }
+
+    @Test
+    public void get_items_next_page_cursor() throws Exception {
+        // Three items exist after id 10, and pages of two are requested
+        List<Item> storedItems = new ArrayList<>();
+        for (long id = 9; id <= 13; id++) {
+            Item item = new Item();
+            item.setId(id);
+            item.setName("testItem" + id);
+            storedItems.add(item);
+        }
+
+        loadCatalog(storedItems);
+
+        // The method under test is called
+        final ResponseEntity<byte[]> response = itemController.getItems(10L, 2, null);
+
+        // Assertions are made, only the first two items are returned, and the cursor points at the second one
+        assertNotNull(response);
+        assertEquals(200,response.getStatusCodeValue());
+        assertEquals(storedItems.subList(2, 4), items(response));
+        assertEquals("12", response.getHeaders().getFirst(ItemController.NEXT_CURSOR_HEADER));
+    }
+
+    @Test
+    public void get_items_not_modified_until_an_item_changes() throws Exception {
+        Item item = new Item();
+        item.setId(1L);
+        item.setName("testItem");
+        List<Item> storedItems = new ArrayList<>();
+        storedItems.add(item);
+        loadCatalog(storedItems);
+
+        ResponseEntity<byte[]> first = itemController.getItems(null, null, null);
+        String etag = first.getHeaders().getETag();
+        assertTrue(etag.startsWith("W/\""));
+        assertEquals("no-cache, private", first.getHeaders().getCacheControl());
+
+        // The tag the client got back answers the next request, also among other tags and without its
+        // W/ prefix
+        ResponseEntity<byte[]> revalidated = itemController.getItems(null, null, "\"other\", " + etag.substring(2));
+        assertEquals(304, revalidated.getStatusCodeValue());
+        assertEquals(etag, revalidated.getHeaders().getETag());
+        assertNull(revalidated.getBody());
+
+        // Once an item changed, the same tag gets the page again under a new tag, with the change
+        Item renamed = copy(item);
+        renamed.setName("renamedItem");
+        catalog.onItemChanged(new ItemChangedEvent(renamed, ItemChangedEvent.Type.UPDATED));
+        ResponseEntity<byte[]> changed = itemController.getItems(null, null, etag);
+        assertEquals(200, changed.getStatusCodeValue());
+        assertEquals("renamedItem", items(changed).get(0).getName());
+        assertNotEquals(etag, changed.getHeaders().getETag());
+    }
+
+    @Test
+    public void get_item_by_id_not_modified() throws Exception {
+        final ResponseEntity<byte[]> response = itemController.getItemById(0L, catalog.current().getETag());
+
+        assertEquals(304, response.getStatusCodeValue());
+    }
+
+    @Test
+    public void catalog_follows_item_changes() throws Exception {
+        Item first = new Item();
+        first.setId(1L);
+        first.setName("testItem");
+        Item second = copy(first);
+        second.setId(2L);
+        loadCatalog(Arrays.asList(first, second));
+
+        // A new item with the same name, a renamed one, and a deleted one
+        Item third = copy(first);
+        third.setId(3L);
+        catalog.onItemChanged(new ItemChangedEvent(third, ItemChangedEvent.Type.CREATED));
+        Item renamed = copy(second);
+        renamed.setName("renamedItem");
+        catalog.onItemChanged(new ItemChangedEvent(renamed, ItemChangedEvent.Type.UPDATED));
+        catalog.onItemChanged(new ItemChangedEvent(first, ItemChangedEvent.Type.DELETED));
+
+        assertEquals(Arrays.asList(renamed, third), items(itemController.getItems(null, null, null)));
+        assertEquals(Collections.singletonList(third), items(itemController.getItemsByName("testItem", null)));
+        assertEquals(Collections.singletonList(renamed), items(itemController.getItemsByName("renamedItem", null)));
+        assertEquals(404, itemController.getItemById(1L, null).getStatusCodeValue());
+        // Changing the entity afterwards does not change the catalog
+        renamed.setName("changedAgain");
+        assertEquals("renamedItem", objectMapper.readValue(itemController.getItemById(2L, null).getBody(), Item.class).getName());
+        verify(itemRepository, times(1)).findAll();
+    }
+
+    @Test
+    public void catalog_refresh_replaces_a_stale_snapshot() throws Exception {
+        Item item = new Item();
+        item.setId(1L);
+        item.setName("testItem");
+        when(itemRepository.findCatalogMarker()).thenReturn(new CatalogMarker(1L, 1L, 0L));
+        loadCatalog(Collections.singletonList(item));
+        String etag = catalog.current().getETag();
+
+        // Nothing changed, the snapshot and its tag are kept, and the items are not read again
+        catalog.refresh();
+        assertEquals(etag, catalog.current().getETag());
+        verify(itemRepository, times(1)).findAll();
+
+        // The item was renamed without an event reaching this catalog, e.g. by another instance
+        Item renamed = copy(item);
+        renamed.setName("renamedItem");
+        when(itemRepository.findCatalogMarker()).thenReturn(new CatalogMarker(1L, 1L, 1L));
+        when(itemRepository.findAll()).thenReturn(Collections.singletonList(renamed));
+        catalog.refresh();
+
+        assertNotEquals(etag, catalog.current().getETag());
+        assertEquals(Collections.singletonList(renamed), items(itemController.getItemsByName("renamedItem", null)));
+    }
+
+    @Test
+    public void export_items_as_ndjson() throws Exception {
+        List<Item> storedItems = new ArrayList<>();
+        for (long id = 1; id <= 3; id++) {
+            Item item = new Item();
+            item.setId(id);
+            item.setName("testItem" + id);
+            item.setPrice(BigDecimal.valueOf(2.99));
+            item.setDescription("This is a testItem description");
+            storedItems.add(item);
+        }
+
+        when(itemRepository.streamAll()).thenReturn(storedItems.stream());
+
+        // The method under test is called
+        MockHttpServletResponse response = new MockHttpServletResponse();
+        itemController.exportItems(response);
+
+        // Assertions are made, there is one JSON document per line, and every item is detached once written
+        assertEquals(ItemController.NDJSON_CONTENT_TYPE, response.getContentType());
+        String[] lines = response.getContentAsString().split("\n");
+        assertEquals(3, lines.length);
+        for (int i = 0; i < lines.length; i++) {
+            Item actualItem = objectMapper.readValue(lines[i], Item.class);
+            assertEquals(storedItems.get(i).getId(), actualItem.getId());
+            assertEquals(storedItems.get(i).getName(), actualItem.getName());
+        }
+        verify(entityManager, times(3)).detach(any(Item.class));
     }
 
     @Test
@@ -68,16 +252,16 @@ public class ItemControllerTest  {
         item.setPrice(new BigDecimal(2.99));
         item.setDescription("This is a testItem description");
 
-        when(itemRepository.findById((long) 0)).thenReturn(java.util.Optional.of(item));
+        loadCatalog(Collections.singletonList(item));
 
         // EMG - The method under test is called
-        final ResponseEntity<Item> response = itemController.getItemById((long) 0);
+        final ResponseEntity<byte[]> response = itemController.getItemById((long) 0, null);
 
         // EMG - Assertions are made
         assertNotNull(response);
         assertEquals(200,response.getStatusCodeValue());
 
-        Item actualItem = response.getBody();
+        Item actualItem = objectMapper.readValue(response.getBody(), Item.class);
         assertNotNull(actualItem);
         assertEquals(item.getId(), actualItem.getId());
         assertEquals(item.getName(), actualItem.getName());
@@ -93,38 +277,80 @@ public class ItemControllerTest  {
         item.setPrice(new BigDecimal(2.99));
         item.setDescription("This is a testItem description");
 
-        // EMG - It is assumed that two items exist in the system
+        // EMG - It is assumed that two items exist in the system, next to an item of another name
         List<Item> expectedItems = new ArrayList<>();
         for (int i=0; i < 2; i++) {
-            item.setId((long) i);
-            expectedItems.add(item);
+            Item copy = copy(item);
+            copy.setId((long) i);
+            expectedItems.add(copy);
         }
-
-        when(itemRepository.findByName("testItem")).thenReturn(expectedItems);
+        Item other = copy(item);
+        other.setId(2L);
+        other.setName("otherItem");
+        List<Item> storedItems = new ArrayList<>(expectedItems);
+        storedItems.add(other);
+        loadCatalog(storedItems);
 
         // EMG - The method under test is called
-        final ResponseEntity<List<Item>> response = itemController.getItemsByName("testItem");
+        final ResponseEntity<byte[]> response = itemController.getItemsByName("testItem", null);
 
         // EMG - Assertions are made
         assertNotNull(response);
         assertEquals(200,response.getStatusCodeValue());
 
-        List<Item> actualItems = response.getBody();
-        assertNotNull(actualItems);
+        List<Item> actualItems = items(response);
         assertEquals(expectedItems, actualItems);
     }
 
     @Test
     public void get_items_by_name_empty() throws Exception {
 
-        when(itemRepository.findByName("testItem")).thenReturn(null);
+        loadCatalog(Collections.emptyList());
 
         // EMG - The method under test is called
-        final ResponseEntity<List<Item>> response = itemController.getItemsByName("testItem");
+        final ResponseEntity<byte[]> response = itemController.getItemsByName("testItem", null);
 
         // EMG - Assertions are made
         assertNotNull(response);
         assertEquals(404,response.getStatusCodeValue());
     }
 
-}
\ No newline at end of file
+    @Test
+    public void search_items_happy_path() throws Exception {
+        Item item = new Item();
+        item.setId((long) 0);
+        item.setName("Round Widget");
+        List<Item> expectedItems = new ArrayList<>();
+        expectedItems.add(item);
+
+        // Without a size, the default page size bounds the number of results
+        when(catalogSearchIndex.search("rou wid", 2)).thenReturn(expectedItems);
+
+        // The method under test is called
+        final ResponseEntity<List<Item>> response = itemController.searchItems("rou wid", null);
+
+        // Assertions are made
+        assertNotNull(response);
+        assertEquals(200,response.getStatusCodeValue());
+        assertEquals(expectedItems, response.getBody());
+    }
+
+    // The catalog snapshot is loaded with the given items
+    private void loadCatalog(List<Item> items) {
+        when(itemRepository.findAll()).thenReturn(items);
+        catalog.rebuild();
+    }
+
+    private List<Item> items(ResponseEntity<byte[]> response) throws Exception {
+        return objectMapper.readValue(response.getBody(), new TypeReference<List<Item>>() {});
+    }
+
+    private static Item copy(Item item) {
+        Item copy = new Item();
+        copy.setId(item.getId());
+        copy.setName(item.getName());
+        copy.setPrice(item.getPrice());
+        copy.setDescription(item.getDescription());
+        return copy;
+    }
+}
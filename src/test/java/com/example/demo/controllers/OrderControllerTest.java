@@ -1,23 +1,46 @@
 package com.example.demo.controllers;
 
 import com.example.demo.TestUtils;
+import com.example.demo.catalog.Catalog;
+import com.example.demo.catalog.CatalogSearchIndex;
+import com.example.demo.catalog.ItemExpander;
+import com.example.demo.logging.RequestEventLogger;
 import com.example.demo.model.persistence.Cart;
 import com.example.demo.model.persistence.Item;
+import com.example.demo.model.persistence.OrderStatus;
 import com.example.demo.model.persistence.User;
 import com.example.demo.model.persistence.UserOrder;
+import com.example.demo.model.persistence.repositories.CartRepository;
+import com.example.demo.model.persistence.repositories.ItemRepository;
 import com.example.demo.model.persistence.repositories.OrderRepository;
 import com.example.demo.model.persistence.repositories.UserRepository;
+import com.example.demo.model.responses.LineSummary;
+import com.example.demo.model.responses.OrderLineSummary;
+import com.example.demo.model.responses.OrderSummary;
+import com.example.demo.security.PrincipalResolver;
+import com.example.demo.security.UserPrincipal;
+import com.example.demo.services.OrderSubmissionService;
+import com.fasterxml.jackson.databind.ObjectMapper;
 import org.junit.Before;
 import org.junit.Test;
+import org.springframework.data.domain.PageRequest;
 import org.springframework.http.ResponseEntity;
 
 import java.math.BigDecimal;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
+import java.util.Optional;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
 public class OrderControllerTest {
@@ -28,13 +51,38 @@ public class OrderControllerTest {
 
     private OrderRepository orderRepository = mock(OrderRepository.class);
 
+    private ItemRepository itemRepository = mock(ItemRepository.class);
+
+    private Catalog catalog = new Catalog();
+
+    private CartRepository cartRepository = mock(CartRepository.class);
+
     // EMG - The user repository, and the order repository are injected
     // into the orderController object
     @Before
     public void setUp() {
+        OrderSubmissionService orderSubmissionService = new OrderSubmissionService();
+        TestUtils.injectObjects(orderSubmissionService, "orderRepository", orderRepository);
+        TestUtils.injectObjects(orderSubmissionService, "cartRepository", cartRepository);
+        when(orderRepository.save(any(UserOrder.class))).thenAnswer(invocation -> invocation.getArgument(0));
+
         orderController = new OrderController();
-        TestUtils.injectObjects(orderController, "userRepository", userRepository);
+        PrincipalResolver principalResolver = new PrincipalResolver();
+        TestUtils.injectObjects(principalResolver, "userRepository", userRepository);
+        TestUtils.injectObjects(principalResolver, "cacheSpec", "maximumSize=10");
+        principalResolver.init();
+        TestUtils.injectObjects(orderController, "principalResolver", principalResolver);
         TestUtils.injectObjects(orderController, "orderRepository", orderRepository);
+        TestUtils.injectObjects(orderController, "orderSubmissionService", orderSubmissionService);
+        TestUtils.injectObjects(orderController, "defaultPageSize", 2);
+        TestUtils.injectObjects(orderController, "maxPageSize", 10);
+        TestUtils.injectObjects(orderController, "requestEvents", new RequestEventLogger());
+        TestUtils.injectObjects(catalog, "itemRepository", itemRepository);
+        TestUtils.injectObjects(catalog, "objectMapper", new ObjectMapper());
+        TestUtils.injectObjects(catalog, "searchIndex", new CatalogSearchIndex());
+        ItemExpander itemExpander = new ItemExpander();
+        TestUtils.injectObjects(itemExpander, "catalog", catalog);
+        TestUtils.injectObjects(orderController, "itemExpander", itemExpander);
     }
 
     @Test
@@ -58,37 +106,75 @@ public class OrderControllerTest {
         item.setDescription("This is a testItem description");
 
         // EMG - It is assumed that a cartController.addTocart has been previously applied
-        List<Item> itemsArray = new ArrayList<>();
-        for (int i=0; i < 3; i++) {
-            itemsArray.add(item);
-        }
-        cart.setItems(itemsArray);
-        cart.setTotal(BigDecimal.valueOf(8.97));
+        cart.addItem(item, 3);
         user.setCart(cart);
 
-        when(userRepository.findByUsername("test")).thenReturn(user);
+        when(userRepository.findPrincipalByUsername("test")).thenReturn(principal(user));
+        when(cartRepository.findWithLineItemsById(0L)).thenReturn(Optional.of(cart));
 
         // EMG - The method under test is called
-        final ResponseEntity<UserOrder> response = orderController.submit("test");
+        final ResponseEntity<OrderSummary> response = orderController.submit("test", null, null);
 
         // EMG - Assertions are made
         assertNotNull(response);
         assertEquals(200,response.getStatusCodeValue());
 
-        UserOrder actualUserOrder = response.getBody();
+        OrderSummary actualUserOrder = response.getBody();
         assertNotNull(actualUserOrder);
-        assertEquals(cart.getItems(), actualUserOrder.getItems());
-        assertEquals(cart.getUser(), actualUserOrder.getUser());
+        assertEquals(1, actualUserOrder.getItems().size());
+        LineSummary orderItem = actualUserOrder.getItems().get(0);
+        assertEquals(item.getId(), orderItem.getItemId());
+        assertEquals(3, orderItem.getQuantity());
+        assertEquals(item.getPrice(), orderItem.getUnitPrice());
+        assertNull(orderItem.getItem());
         assertEquals(cart.getTotal(), actualUserOrder.getTotal());
     }
 
+    @Test
+    public void submit_order_idempotent_replay() throws Exception {
+        User user = new User();
+        user.setUsername("test");
+        user.setCart(new Cart());
+
+        // An order was already submitted with the same key
+        UserOrder earlierOrder = new UserOrder();
+        earlierOrder.setId(7L);
+        earlierOrder.setIdempotencyKey("key-1");
+        earlierOrder.setItems(Collections.emptyList());
+
+        when(userRepository.findPrincipalByUsername("test")).thenReturn(principal(user));
+        when(orderRepository.findByUserIdAndIdempotencyKey(user.getId(), "key-1")).thenReturn(earlierOrder);
+
+        final ResponseEntity<OrderSummary> response = orderController.submit("test", "key-1", null);
+
+        // The earlier order is returned and nothing new is stored
+        assertNotNull(response);
+        assertEquals(200,response.getStatusCodeValue());
+        assertEquals(earlierOrder.getId(), response.getBody().getId());
+        verify(orderRepository, never()).save(any(UserOrder.class));
+    }
+
+    @Test
+    public void submit_order_idempotency_key_too_long() throws Exception {
+        String key = new String(new char[UserOrder.IDEMPOTENCY_KEY_LENGTH + 1]).replace('\0', 'k');
+
+        final ResponseEntity<OrderSummary> response = orderController.submit("test", key, null);
+        final ResponseEntity<OrderSummary> asyncResponse = orderController.submitAsync("test", key, null);
+
+        // The key would not fit its column, both submissions are rejected before anything is read or stored
+        assertEquals(400, response.getStatusCodeValue());
+        assertEquals(400, asyncResponse.getStatusCodeValue());
+        verify(userRepository, never()).findPrincipalByUsername(any());
+        verify(orderRepository, never()).save(any(UserOrder.class));
+    }
+
     @Test
     public void submit_order_username_not_found() throws Exception {
 
-        when(userRepository.findByUsername("test")).thenReturn(null);
+        when(userRepository.findPrincipalByUsername("test")).thenReturn(null);
 
         // EMG - The method under test is called
-        final ResponseEntity<UserOrder> response = orderController.submit("test");
+        final ResponseEntity<OrderSummary> response = orderController.submit("test", null, null);
 
         // EMG - Assertions are made
         assertNotNull(response);
@@ -108,58 +194,94 @@ public class OrderControllerTest {
         user.setId(0);
         user.setPassword("testPassword");
 
-        // EMG - Secondly, an item setup is completed
+        when(userRepository.findPrincipalByUsername("test")).thenReturn(principal(user));
+
+        // Two orders were submitted, the history query returns their headers newest first and the
+        // line query returns the lines of both at once
+        OrderSummary newer = new OrderSummary(2L, new BigDecimal("5.98"), OrderStatus.COMPLETED);
+        OrderSummary older = new OrderSummary(1L, new BigDecimal("2.99"), OrderStatus.COMPLETED);
+        when(orderRepository.findSummariesByUserId(user.getId(), Long.MAX_VALUE, PageRequest.of(0, 3)))
+                .thenReturn(new ArrayList<>(Arrays.asList(newer, older)));
+        when(orderRepository.findLineSummariesByOrderIds(any())).thenReturn(Arrays.asList(
+                new OrderLineSummary(1L, 0L, "testItem", 1, new BigDecimal("2.99")),
+                new OrderLineSummary(2L, 0L, "testItem", 2, new BigDecimal("2.99"))));
+
+        // EMG - The method under test is called
+        final ResponseEntity<List<OrderSummary>> response = orderController.getOrdersForUser("test", null, null, null);
+
+        // EMG - Assertions are made
+        assertNotNull(response);
+        assertEquals(200,response.getStatusCodeValue());
+        assertNull(response.getHeaders().getFirst(ItemController.NEXT_CURSOR_HEADER));
+
+        List<OrderSummary> actualOrders = response.getBody();
+        assertNotNull(actualOrders);
+        assertEquals(Arrays.asList(newer, older), actualOrders);
+        assertEquals(2, newer.getItems().get(0).getQuantity());
+        assertEquals(1, older.getItems().get(0).getQuantity());
+    }
+
+    @Test
+    public void get_orders_for_user_expands_items() throws Exception {
+        User user = new User();
+        user.setUsername("test");
+        when(userRepository.findPrincipalByUsername("test")).thenReturn(principal(user));
+
+        OrderSummary order = new OrderSummary(1L, new BigDecimal("5.98"), OrderStatus.COMPLETED);
+        when(orderRepository.findSummariesByUserId(user.getId(), Long.MAX_VALUE, PageRequest.of(0, 3)))
+                .thenReturn(new ArrayList<>(Collections.singletonList(order)));
+        when(orderRepository.findLineSummariesByOrderIds(any())).thenReturn(Collections.singletonList(
+                new OrderLineSummary(1L, 0L, "testItem", 2, new BigDecimal("2.99"))));
         Item item = new Item();
-        item.setId((long) 0);
+        item.setId(0L);
         item.setName("testItem");
-        item.setPrice(new BigDecimal(2.99));
-        item.setDescription("This is a testItem description");
+        when(itemRepository.findAll()).thenReturn(Collections.singletonList(item));
+        catalog.rebuild();
 
-        // EMG - It is assumed that a cartController.addTocart has been previously applied
-        List<Item> itemsArray = new ArrayList<>();
-        for (int i=0; i < 3; i++) {
-            itemsArray.add(item);
-        }
-        cart.setItems(itemsArray);
-        cart.setTotal(BigDecimal.valueOf(8.97));
-        user.setCart(cart);
+        // Asked for with ?expand=items, every line carries the whole item
+        final ResponseEntity<List<OrderSummary>> response = orderController.getOrdersForUser("test", null, null, "items");
 
-        when(userRepository.findByUsername("test")).thenReturn(user);
+        assertEquals(200,response.getStatusCodeValue());
+        Item expanded = response.getBody().get(0).getItems().get(0).getItem();
+        assertSame(catalog.current().getItem(0L), expanded);
+        assertEquals(item.getName(), expanded.getName());
+    }
 
-        // EMG - It is assumed that a orderController.submit has been previously applied. For instance,
-        // let' s assume it has been applied twice
-        UserOrder order = UserOrder.createFromCart(user.getCart());
-        List<UserOrder> expectedUserOrders = new ArrayList<>();
-        for (int i=0; i < 2; i++) {
-            order.setId((long) i);
-            expectedUserOrders.add(order);
-        }
+    @Test
+    public void get_orders_for_user_next_page_cursor() throws Exception {
+        User user = new User();
+        user.setUsername("test");
+        when(userRepository.findPrincipalByUsername("test")).thenReturn(principal(user));
 
-        when(orderRepository.findByUser(user)).thenReturn(expectedUserOrders);
+        // A page of one order is asked for, older than order 9. The extra row means there is more.
+        when(orderRepository.findSummariesByUserId(user.getId(), 9L, PageRequest.of(0, 2))).thenReturn(new ArrayList<>(Arrays.asList(
+                new OrderSummary(8L, BigDecimal.ONE, OrderStatus.COMPLETED),
+                new OrderSummary(5L, BigDecimal.ONE, OrderStatus.COMPLETED))));
 
-        // EMG - The method under test is called
-        final ResponseEntity<List<UserOrder>> response = orderController.getOrdersForUser("test");
+        final ResponseEntity<List<OrderSummary>> response = orderController.getOrdersForUser("test", 9L, 1, null);
 
-        // EMG - Assertions are made
-        assertNotNull(response);
         assertEquals(200,response.getStatusCodeValue());
-
-        List<UserOrder> actualUserOrders = response.getBody();
-        assertNotNull(actualUserOrders);
-        assertEquals(expectedUserOrders, actualUserOrders);
+        assertEquals(1, response.getBody().size());
+        assertEquals(Long.valueOf(8L), response.getBody().get(0).getId());
+        assertEquals("8", response.getHeaders().getFirst(ItemController.NEXT_CURSOR_HEADER));
+        verify(orderRepository).findLineSummariesByOrderIds(Collections.singleton(8L));
     }
 
     @Test
     public void get_orders_for_user_username_not_found() throws Exception {
 
-        when(userRepository.findByUsername("test")).thenReturn(null);
+        when(userRepository.findPrincipalByUsername("test")).thenReturn(null);
 
         // EMG - The method under test is called
-        final ResponseEntity<List<UserOrder>> response = orderController.getOrdersForUser("test");
+        final ResponseEntity<List<OrderSummary>> response = orderController.getOrdersForUser("test", null, null, null);
 
         // EMG - Assertions are made
         assertNotNull(response);
         assertEquals(404,response.getStatusCodeValue());
     }
 
+    // The principal the resolver reads for the user
+    private static UserPrincipal principal(User user) {
+        return new UserPrincipal(user.getId(), user.getUsername(), user.getCart() == null ? null : user.getCart().getId());
+    }
 }
@@ -1,19 +1,31 @@
 package com.example.demo.controllers;
 
 import com.example.demo.TestUtils;
+import com.example.demo.logging.RequestEventLogger;
 import com.example.demo.model.persistence.Cart;
 import com.example.demo.model.persistence.User;
 import com.example.demo.model.persistence.repositories.CartRepository;
 import com.example.demo.model.persistence.repositories.UserRepository;
 import com.example.demo.model.requests.CreateUserRequest;
+import com.example.demo.services.PasswordHashingService;
 import org.junit.Before;
 import org.junit.Test;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.ResponseEntity;
-import org.springframework.security.crypto.bcrypt.BCryptPasswordEncoder;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
+import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
 public class UserControllerTest {
@@ -24,31 +36,35 @@ public class UserControllerTest {
 
     private CartRepository cartRepository = mock(CartRepository.class);
 
-    private BCryptPasswordEncoder bCryptPasswordEncoder = mock(BCryptPasswordEncoder.class);
+    private PasswordHashingService passwordHashingService = mock(PasswordHashingService.class);
 
-    // EMG - The user repository, the cart repository, and the bCryptPasswordEncoder are injected
+    // EMG - The user repository, the cart repository, and the passwordHashingService are injected
     // into the userController object
     @Before
     public void setUp() {
         userController = new UserController();
         TestUtils.injectObjects(userController, "userRepository", userRepository);
         TestUtils.injectObjects(userController, "cartRepository", cartRepository);
-        TestUtils.injectObjects(userController, "bCryptPasswordEncoder", bCryptPasswordEncoder);
+        TestUtils.injectObjects(userController, "passwordHashingService", passwordHashingService);
+        TestUtils.injectObjects(userController, "transactionTemplate",
+                new TransactionTemplate(mock(PlatformTransactionManager.class)));
+        TestUtils.injectObjects(userController, "requestEvents", new RequestEventLogger());
+        TestUtils.injectObjects(userController, "taskExecutor", (Executor) Runnable::run);
 
     }
 
     @Test
     public void create_user_happy_path() throws Exception {
-        // EMG - Whenever the "testPassword" value is encountered by bCryptPasswordEncoder.encode,
+        // EMG - Whenever the "testPassword" value is encountered by passwordHashingService.encode,
         // it will return "thisIsHashed". This is a stub.
-        when(bCryptPasswordEncoder.encode("testPassword")).thenReturn("thisIsHashed");
+        when(passwordHashingService.encode("testPassword")).thenReturn(CompletableFuture.completedFuture("thisIsHashed"));
         // EMG - Firstly, a user is created, completing the setup and calling the method under test
         CreateUserRequest createUserRequest = new CreateUserRequest();
         createUserRequest.setUsername("test");
         createUserRequest.setPassword("testPassword");
         createUserRequest.setConfirmPassword("testPassword");
 
-        final ResponseEntity<User> response = userController.createUser(createUserRequest);
+        final ResponseEntity<User> response = userController.createUser(createUserRequest).get();
 
         // EMG - Assertions are made
         assertNotNull(response);
@@ -63,21 +79,57 @@ public class UserControllerTest {
 
     @Test
     public void create_user_password_invalid() throws Exception {
-        // EMG - Whenever the "testPassword" value is encountered by bCryptPasswordEncoder.encode,
+        // EMG - Whenever the "testPassword" value is encountered by passwordHashingService.encode,
         // it will return "thisIsHashed". This is a stub.
-        when(bCryptPasswordEncoder.encode("testPassword")).thenReturn("thisIsHashed");
+        when(passwordHashingService.encode("testPassword")).thenReturn(CompletableFuture.completedFuture("thisIsHashed"));
         // EMG - Firstly, a user is created, completing the setup and calling the method under test
         CreateUserRequest createUserRequest = new CreateUserRequest();
         createUserRequest.setUsername("test");
         createUserRequest.setPassword("passwd");
         createUserRequest.setConfirmPassword("testPassword");
 
-        final ResponseEntity<User> response = userController.createUser(createUserRequest);
+        final ResponseEntity<User> response = userController.createUser(createUserRequest).get();
 
         // EMG - Assertions are made, and `bad request` (400) is expected
         assertNotNull(response);
         assertEquals(400,response.getStatusCodeValue());
+        // Nothing is stored for a rejected sign-up
+        verify(cartRepository, never()).save(any(Cart.class));
+        verify(userRepository, never()).save(any(User.class));
+
+    }
 
+    @Test
+    public void create_user_rejected_when_hashing_is_saturated() throws Exception {
+        when(passwordHashingService.encode("testPassword")).thenThrow(new RejectedExecutionException());
+        CreateUserRequest createUserRequest = new CreateUserRequest();
+        createUserRequest.setUsername("test");
+        createUserRequest.setPassword("testPassword");
+        createUserRequest.setConfirmPassword("testPassword");
+
+        final ResponseEntity<User> response = userController.createUser(createUserRequest).get();
+
+        // The client is asked to retry later, and nothing is stored
+        assertNotNull(response);
+        assertEquals(503,response.getStatusCodeValue());
+        assertEquals("1", response.getHeaders().getFirst(HttpHeaders.RETRY_AFTER));
+        verify(cartRepository, never()).save(any(Cart.class));
+    }
+
+    @Test
+    public void create_user_conflict_when_username_is_taken() throws Exception {
+        when(passwordHashingService.encode("testPassword")).thenReturn(CompletableFuture.completedFuture("thisIsHashed"));
+        // The unique username of another user
+        when(userRepository.save(any(User.class))).thenThrow(new DataIntegrityViolationException("username"));
+        CreateUserRequest createUserRequest = new CreateUserRequest();
+        createUserRequest.setUsername("test");
+        createUserRequest.setPassword("testPassword");
+        createUserRequest.setConfirmPassword("testPassword");
+
+        final ResponseEntity<User> response = userController.createUser(createUserRequest).get();
+
+        assertNotNull(response);
+        assertEquals(409,response.getStatusCodeValue());
     }
 
     @Test
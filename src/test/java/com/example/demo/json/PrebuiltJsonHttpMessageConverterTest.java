@@ -0,0 +1,100 @@
+package com.example.demo.json;
+
+import com.example.demo.model.persistence.Cart;
+import com.example.demo.model.persistence.Item;
+import com.example.demo.model.requests.ModifyCartRequest;
+import com.example.demo.model.responses.CartSummary;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.module.afterburner.AfterburnerModule;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.http.MediaType;
+import org.springframework.http.converter.HttpMessageNotReadableException;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+import org.springframework.http.converter.json.MappingJackson2HttpMessageConverter;
+import org.springframework.mock.http.MockHttpInputMessage;
+import org.springframework.mock.http.MockHttpOutputMessage;
+
+import java.lang.reflect.Type;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class PrebuiltJsonHttpMessageConverterTest {
+
+    private static final Type ITEM_LIST = new TypeReference<List<Item>>() {}.getType();
+
+    private ObjectMapper objectMapper;
+
+    private PrebuiltJsonHttpMessageConverter converter;
+
+    @Before
+    public void setUp() {
+        objectMapper = Jackson2ObjectMapperBuilder.json().modulesToInstall(AfterburnerModule.class).build();
+        converter = new PrebuiltJsonHttpMessageConverter(objectMapper, JsonConfiguration.PREBUILT_READ_TYPES,
+                JsonConfiguration.PREBUILT_WRITE_TYPES);
+    }
+
+    @Test
+    public void listed_types_are_written_as_springs_converter_writes_them() throws Exception {
+        Item item = new Item();
+        item.setId(1L);
+        item.setName("Round Widget");
+        item.setPrice(new BigDecimal("2.99"));
+        item.setDescription("A widget that is round");
+        Cart cart = new Cart();
+        cart.setId(3L);
+        cart.addItem(item, 2);
+        CartSummary summary = CartSummary.of(cart);
+        summary.getItems().get(0).setItem(item);
+
+        assertTrue(converter.canWrite(CartSummary.class, CartSummary.class, MediaType.APPLICATION_JSON));
+        assertTrue(converter.canWrite(ITEM_LIST, List.class, MediaType.APPLICATION_JSON));
+        assertEquals(springWrite(summary, CartSummary.class), write(summary, CartSummary.class));
+        assertEquals(springWrite(Arrays.asList(item, item), ITEM_LIST), write(Arrays.asList(item, item), ITEM_LIST));
+    }
+
+    @Test
+    public void unlisted_types_are_left_to_the_next_converter() {
+        assertFalse(converter.canWrite(Cart.class, Cart.class, MediaType.APPLICATION_JSON));
+        assertFalse(converter.canWrite(List.class, List.class, MediaType.APPLICATION_JSON));
+        assertFalse(converter.canRead(CartSummary.class, null, MediaType.APPLICATION_JSON));
+        assertFalse(converter.canRead(ModifyCartRequest.class, null, MediaType.TEXT_PLAIN));
+    }
+
+    @Test
+    public void listed_request_body_is_read() throws Exception {
+        assertTrue(converter.canRead(ModifyCartRequest.class, null, MediaType.APPLICATION_JSON));
+        ModifyCartRequest request = (ModifyCartRequest) converter.read(ModifyCartRequest.class, null,
+                new MockHttpInputMessage("{\"username\":\"test\",\"itemId\":1,\"quantity\":2}".getBytes(StandardCharsets.UTF_8)));
+
+        assertEquals("test", request.getUsername());
+        assertEquals(1L, request.getItemId());
+        assertEquals(2, request.getQuantity());
+    }
+
+    @Test(expected = HttpMessageNotReadableException.class)
+    public void malformed_request_body_is_not_readable() throws Exception {
+        converter.read(ModifyCartRequest.class, null,
+                new MockHttpInputMessage("{\"username\":".getBytes(StandardCharsets.UTF_8)));
+    }
+
+    private String write(Object body, Type type) throws Exception {
+        MockHttpOutputMessage output = new MockHttpOutputMessage();
+        converter.write(body, type, MediaType.APPLICATION_JSON, output);
+        assertEquals(MediaType.APPLICATION_JSON_UTF8, output.getHeaders().getContentType());
+        return output.getBodyAsString(StandardCharsets.UTF_8);
+    }
+
+    private String springWrite(Object body, Type type) throws Exception {
+        MockHttpOutputMessage output = new MockHttpOutputMessage();
+        new MappingJackson2HttpMessageConverter(objectMapper).write(body, type, MediaType.APPLICATION_JSON, output);
+        return output.getBodyAsString(StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,113 @@
+package com.example.demo.logging;
+
+import com.example.demo.TestUtils;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.apache.logging.log4j.Level;
+import org.apache.logging.log4j.core.LoggerContext;
+import org.apache.logging.log4j.core.appender.WriterAppender;
+import org.apache.logging.log4j.core.config.AppenderRef;
+import org.apache.logging.log4j.core.config.Configuration;
+import org.apache.logging.log4j.core.config.DefaultConfiguration;
+import org.apache.logging.log4j.core.config.LoggerConfig;
+import org.apache.logging.log4j.core.layout.PatternLayout;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.StringWriter;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class RequestEventLoggerTest {
+
+    // The layout of the EventFile appender in log4j2-spring.xml
+    private static final String PATTERN = "{\"ts\":\"%d{ISO8601_PERIOD}{UTC}Z\",%m}%n";
+
+    private StringWriter events = new StringWriter();
+
+    private LoggerContext context;
+
+    private RequestEventLogger requestEvents = new RequestEventLogger();
+
+    // Events go through a logger context of their own that writes them with the layout of the events file
+    @Before
+    public void setUp() {
+        Configuration configuration = new DefaultConfiguration();
+        WriterAppender appender = WriterAppender.createAppender(
+                PatternLayout.newBuilder().withPattern(PATTERN).withConfiguration(configuration).build(),
+                null, events, "events", false, true);
+        appender.start();
+        LoggerConfig loggerConfig = LoggerConfig.createLogger(false, Level.INFO, RequestEventLogger.LOGGER_NAME,
+                "true", new AppenderRef[0], null, configuration, null);
+        loggerConfig.addAppender(appender, null, null);
+        configuration.addLogger(RequestEventLogger.LOGGER_NAME, loggerConfig);
+        context = new LoggerContext("request-events-test");
+        context.start(configuration);
+        TestUtils.injectObjects(requestEvents, "log", context.getLogger(RequestEventLogger.LOGGER_NAME));
+    }
+
+    @After
+    public void tearDown() {
+        context.stop();
+    }
+
+    @Test
+    public void event_is_one_line_of_json() throws Exception {
+        TestUtils.injectObjects(requestEvents, "sampleRate", 0.1);
+        TestUtils.injectObjects(requestEvents, "sampled", new String[] { "add_to_cart" });
+        requestEvents.init();
+
+        // Logged until it is sampled in
+        while (events.toString().isEmpty()) {
+            requestEvents.success("add_to_cart", "te\"st\n", 7L, 3, System.nanoTime());
+        }
+
+        String event = events.toString();
+        assertEquals(event.length() - 1, event.indexOf('\n'));
+        JsonNode json = new ObjectMapper().readTree(event);
+        assertTrue(json.get("ts").asText().matches("\\d{4}-\\d{2}-\\d{2}T\\d{2}:\\d{2}:\\d{2}\\.\\d{3}Z"));
+        assertEquals("add_to_cart", json.get("event").asText());
+        assertEquals("te\"st\n", json.get("user").asText());
+        assertEquals(7, json.get("item").asLong());
+        assertEquals(3, json.get("qty").asInt());
+        assertTrue(json.get("cursor").isNull());
+        assertTrue(json.get("count").isNull());
+        assertTrue(json.get("latencyUs").asLong() >= 0);
+        assertEquals("success", json.get("outcome").asText());
+        assertEquals(0.1, json.get("sampleRate").asDouble(), 0.0);
+    }
+
+    @Test
+    public void results_are_counted_apart_from_item_quantities() throws Exception {
+        requestEvents.successCount("get_items", null, 42L, 100, System.nanoTime() - 2_500_000);
+        requestEvents.failureCount("update_cart", "test", 3, System.nanoTime(), "conflict");
+
+        String[] lines = events.toString().split("\n");
+        assertEquals(2, lines.length);
+        JsonNode page = new ObjectMapper().readTree(lines[0]);
+        assertTrue(page.get("user").isNull());
+        assertTrue(page.get("item").isNull());
+        assertTrue(page.get("qty").isNull());
+        assertEquals(42, page.get("cursor").asLong());
+        assertEquals(100, page.get("count").asInt());
+        assertTrue(page.get("latencyUs").asLong() >= 2_500);
+        assertFalse(page.has("sampleRate"));
+        JsonNode update = new ObjectMapper().readTree(lines[1]);
+        assertEquals("test", update.get("user").asText());
+        assertEquals(3, update.get("count").asInt());
+        assertEquals("conflict", update.get("outcome").asText());
+    }
+
+    @Test
+    public void only_listed_events_are_sampled() {
+        TestUtils.injectObjects(requestEvents, "sampleRate", 0.0);
+        TestUtils.injectObjects(requestEvents, "sampled", new String[] { "get_items" });
+        requestEvents.init();
+
+        assertFalse(requestEvents.isSampledIn("get_items"));
+        assertTrue(requestEvents.isSampledIn("submit_order"));
+    }
+}
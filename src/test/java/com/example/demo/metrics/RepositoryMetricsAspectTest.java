@@ -0,0 +1,69 @@
+package com.example.demo.metrics;
+
+import com.example.demo.TestUtils;
+import com.example.demo.model.persistence.Item;
+import com.example.demo.model.persistence.repositories.ItemRepository;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.aop.aspectj.annotation.AspectJProxyFactory;
+
+import java.util.Optional;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class RepositoryMetricsAspectTest {
+
+    private SimpleMeterRegistry registry = new SimpleMeterRegistry();
+
+    private ItemRepository itemRepository = mock(ItemRepository.class);
+
+    private ItemRepository timedItemRepository;
+
+    // The aspect is applied to a mocked repository, as Spring applies it to the real ones
+    @Before
+    public void setUp() {
+        RepositoryMetricsAspect aspect = new RepositoryMetricsAspect();
+        TestUtils.injectObjects(aspect, "meterRegistry", registry);
+        AspectJProxyFactory factory = new AspectJProxyFactory(itemRepository);
+        factory.addAspect(aspect);
+        timedItemRepository = factory.getProxy();
+    }
+
+    @Test
+    public void repository_calls_are_timed() {
+        when(itemRepository.findById(1L)).thenReturn(Optional.of(new Item()));
+
+        timedItemRepository.findById(1L);
+        timedItemRepository.findById(1L);
+
+        Timer timer = registry.get(RepositoryMetricsAspect.METRIC_NAME)
+                .tag("repository", "ItemRepository")
+                .tag("method", "findById")
+                .tag("exception", "none")
+                .timer();
+        assertEquals(2, timer.count());
+    }
+
+    @Test
+    public void failed_repository_calls_are_tagged_with_the_exception() {
+        when(itemRepository.findById(2L)).thenThrow(new IllegalStateException());
+
+        try {
+            timedItemRepository.findById(2L);
+            fail("Expected the repository exception to be rethrown");
+        } catch (IllegalStateException e) {
+            // expected
+        }
+
+        assertEquals(1, registry.get(RepositoryMetricsAspect.METRIC_NAME)
+                .tag("method", "findById")
+                .tag("exception", "IllegalStateException")
+                .timer().count());
+    }
+
+}
@@ -0,0 +1,58 @@
+package com.example.demo.model.persistence.migrations;
+
+import com.example.demo.model.persistence.Cart;
+import com.example.demo.model.persistence.repositories.CartRepository;
+import com.example.demo.model.persistence.repositories.ItemRepository;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.context.junit4.SpringRunner;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.math.BigDecimal;
+
+import static org.junit.Assert.assertEquals;
+
+@RunWith(SpringRunner.class)
+@SpringBootTest
+public class CartTotalsReconciliationTest {
+
+    @Autowired
+    private CartTotalsReconciliation reconciliation;
+
+    @Autowired
+    private CartRepository cartRepository;
+
+    @Autowired
+    private ItemRepository itemRepository;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Autowired
+    private TransactionTemplate transactionTemplate;
+
+    @Test
+    public void totals_are_rebuilt_from_line_items() {
+        // Two units of the Round Widget at 2.99 and three of the Square Widget at 1.99
+        Cart stored = transactionTemplate.execute(status -> {
+            Cart cart = new Cart();
+            cart.addItem(itemRepository.findById(1L).get(), 2);
+            cart.addItem(itemRepository.findById(2L).get(), 3);
+            return cartRepository.save(cart);
+        });
+        assertEquals(0, reconciliation.reconcile());
+
+        // The totals drift, e.g. after line items were written without going through the Cart
+        jdbcTemplate.update("update cart set total_cents = 1, units = 1 where id = ?", stored.getId());
+        assertEquals(1, reconciliation.reconcile());
+
+        Cart reconciled = cartRepository.findById(stored.getId()).get();
+        assertEquals(1195, reconciled.getTotals().getTotalCents());
+        assertEquals(5, reconciled.getTotals().getUnits());
+        assertEquals(new BigDecimal("11.95"), reconciled.getTotal());
+        assertEquals(stored.getVersion() + 1, reconciled.getVersion());
+    }
+}
@@ -0,0 +1,115 @@
+package com.example.demo.model.persistence.migrations;
+
+import com.example.demo.model.persistence.Cart;
+import com.example.demo.model.persistence.OrderItem;
+import com.example.demo.model.persistence.User;
+import com.example.demo.model.persistence.UserOrder;
+import com.example.demo.model.persistence.repositories.CartRepository;
+import com.example.demo.model.persistence.repositories.OrderRepository;
+import com.example.demo.model.persistence.repositories.UserRepository;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.support.GeneratedKeyHolder;
+import org.springframework.jdbc.support.KeyHolder;
+import org.springframework.test.context.junit4.SpringRunner;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.math.BigDecimal;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.UUID;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+// Carts and orders stored with one join table row per unit, as before line items, are folded into
+// line items at the next start
+@RunWith(SpringRunner.class)
+@SpringBootTest
+public class LineItemMigrationTest {
+
+    @Autowired
+    private LineItemMigration migration;
+
+    @Autowired
+    private CartTotalsReconciliation reconciliation;
+
+    @Autowired
+    private CartRepository cartRepository;
+
+    @Autowired
+    private UserRepository userRepository;
+
+    @Autowired
+    private OrderRepository orderRepository;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Autowired
+    private TransactionTemplate transactionTemplate;
+
+    @Test
+    public void unit_rows_are_folded_into_line_items() throws Exception {
+        // A cart row as stored before the totals and version columns, which take their defaults
+        KeyHolder cartKey = new GeneratedKeyHolder();
+        jdbcTemplate.update(connection -> connection.prepareStatement("insert into cart (id) values (null)", new String[] { "ID" }), cartKey);
+        User user = transactionTemplate.execute(status -> {
+            User created = new User();
+            created.setUsername("migrated-" + UUID.randomUUID());
+            created.setPassword("unused");
+            created.setCart(cartRepository.findById(cartKey.getKey().longValue()).get());
+            return userRepository.save(created);
+        });
+        UserOrder order = transactionTemplate.execute(status -> {
+            UserOrder created = new UserOrder();
+            created.setUser(user);
+            created.setTotal(new BigDecimal("10.96"));
+            return orderRepository.save(created);
+        });
+        Long cartId = user.getCart().getId();
+
+        // Three units of the Round Widget (item 1 of data.sql) and one of the Square Widget (item 2),
+        // one row per unit as the former @ManyToMany join tables stored them
+        jdbcTemplate.execute("create table cart_items (cart_id bigint not null, items_id bigint not null)");
+        jdbcTemplate.execute("create table user_order_items (user_order_id bigint not null, items_id bigint not null)");
+        for (long itemId : new long[] { 1, 1, 2, 1 }) {
+            jdbcTemplate.update("insert into cart_items (cart_id, items_id) values (?, ?)", cartId, itemId);
+            jdbcTemplate.update("insert into user_order_items (user_order_id, items_id) values (?, ?)", order.getId(), itemId);
+        }
+
+        migration.migrate();
+        reconciliation.reconcile();
+
+        transactionTemplate.execute(status -> {
+            Cart cart = cartRepository.findWithLineItemsById(cartId).get();
+            assertEquals(2, cart.getItems().size());
+            assertEquals(3, cart.getLineItem(1L).getQuantity());
+            assertEquals(1, cart.getLineItem(2L).getQuantity());
+            assertEquals(4, cart.getTotals().getUnits());
+            assertEquals(0, new BigDecimal("10.96").compareTo(cart.getTotal()));
+
+            Map<Long, OrderItem> lines = new HashMap<>();
+            for (OrderItem line : orderRepository.findById(order.getId()).get().getItems()) {
+                lines.put(line.getItemId(), line);
+            }
+            assertEquals(2, lines.size());
+            assertEquals(3, lines.get(1L).getQuantity());
+            assertEquals(0, new BigDecimal("2.99").compareTo(lines.get(1L).getUnitPrice()));
+            assertEquals(1, lines.get(2L).getQuantity());
+            return null;
+        });
+
+        // The join tables are gone, so the next start has nothing left to migrate
+        assertFalse(tableExists("CART_ITEMS"));
+        assertFalse(tableExists("USER_ORDER_ITEMS"));
+    }
+
+    private boolean tableExists(String table) {
+        return jdbcTemplate.queryForObject(
+                "select count(*) from information_schema.tables where table_name = ?", Integer.class, table) > 0;
+    }
+}
@@ -0,0 +1,60 @@
+package com.example.demo.security;
+
+import com.example.demo.TestUtils;
+import com.example.demo.model.persistence.repositories.UserRepository;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class PrincipalResolverTest {
+
+    private PrincipalResolver principalResolver;
+
+    private UserRepository userRepository = mock(UserRepository.class);
+
+    private UserPrincipal principal = new UserPrincipal(1, "test", 2L);
+
+    @Before
+    public void setUp() {
+        principalResolver = new PrincipalResolver();
+        TestUtils.injectObjects(principalResolver, "userRepository", userRepository);
+        TestUtils.injectObjects(principalResolver, "cacheSpec", "maximumSize=10");
+        principalResolver.init();
+
+        when(userRepository.findPrincipalByUsername("test")).thenReturn(principal);
+    }
+
+    @Test
+    public void principal_is_loaded_once_across_requests() {
+        assertSame(principal, principalResolver.resolve("test"));
+        UserPrincipal next = principalResolver.resolve("test");
+
+        assertEquals(2L, (long) next.getCartId());
+        verify(userRepository, times(1)).findPrincipalByUsername("test");
+    }
+
+    @Test
+    public void principal_is_reloaded_after_user_changes() {
+        principalResolver.resolve("test");
+        principalResolver.onUserChanged(new UserChangedEvent("test"));
+        principalResolver.resolve("test");
+
+        verify(userRepository, times(2)).findPrincipalByUsername("test");
+    }
+
+    @Test
+    public void unknown_user_is_not_cached() {
+        assertNull(principalResolver.resolve("unknown"));
+        assertNull(principalResolver.resolve("unknown"));
+
+        verify(userRepository, times(2)).findPrincipalByUsername("unknown");
+    }
+
+}
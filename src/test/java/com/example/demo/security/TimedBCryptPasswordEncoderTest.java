@@ -0,0 +1,25 @@
+package com.example.demo.security;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class TimedBCryptPasswordEncoderTest {
+
+    @Test
+    public void encode_and_matches_are_timed() {
+        // The lowest strength keeps the test fast
+        TimedBCryptPasswordEncoder encoder = new TimedBCryptPasswordEncoder(4);
+        SimpleMeterRegistry registry = new SimpleMeterRegistry();
+        encoder.bindTo(registry);
+
+        String hash = encoder.encode("testPassword");
+        assertTrue(encoder.matches("testPassword", hash));
+
+        assertEquals(1, registry.get("security.bcrypt").tag("operation", "encode").timer().count());
+        assertEquals(1, registry.get("security.bcrypt").tag("operation", "matches").timer().count());
+    }
+
+}
@@ -0,0 +1,72 @@
+package com.example.demo.security;
+
+import com.example.demo.TestUtils;
+import com.example.demo.model.persistence.User;
+import com.example.demo.model.persistence.repositories.UserRepository;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.security.core.userdetails.UserDetails;
+import org.springframework.security.core.userdetails.UsernameNotFoundException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.fail;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class UserDetailsServiceImplTest {
+
+    private UserDetailsServiceImpl userDetailsService;
+
+    private UserRepository userRepository = mock(UserRepository.class);
+
+    @Before
+    public void setUp() {
+        userDetailsService = new UserDetailsServiceImpl();
+        TestUtils.injectObjects(userDetailsService, "userRepository", userRepository);
+        TestUtils.injectObjects(userDetailsService, "cacheSpec", "maximumSize=10");
+        userDetailsService.init();
+
+        User user = new User();
+        user.setUsername("test");
+        user.setPassword("thisIsHashed");
+        when(userRepository.findByUsername("test")).thenReturn(user);
+    }
+
+    @Test
+    public void credentials_are_loaded_once() {
+        UserDetails first = userDetailsService.loadUserByUsername("test");
+        UserDetails second = userDetailsService.loadUserByUsername("test");
+
+        // Both logins see the hash, but each gets its own UserDetails to erase
+        assertEquals("thisIsHashed", first.getPassword());
+        assertEquals("thisIsHashed", second.getPassword());
+        assertNotSame(first, second);
+        verify(userRepository, times(1)).findByUsername("test");
+    }
+
+    @Test
+    public void credentials_are_reloaded_after_user_changes() {
+        userDetailsService.loadUserByUsername("test");
+        userDetailsService.onUserChanged(new UserChangedEvent("test"));
+        userDetailsService.loadUserByUsername("test");
+
+        verify(userRepository, times(2)).findByUsername("test");
+    }
+
+    @Test
+    public void unknown_user_is_not_cached() {
+        for (int i = 0; i < 2; i++) {
+            try {
+                userDetailsService.loadUserByUsername("unknown");
+                fail("Expected the unknown user to be rejected");
+            } catch (UsernameNotFoundException e) {
+                // expected
+            }
+        }
+        verify(userRepository, times(2)).findByUsername("unknown");
+    }
+
+}
@@ -0,0 +1,103 @@
+package com.example.demo.security;
+
+import com.auth0.jwt.JWT;
+import com.auth0.jwt.exceptions.JWTVerificationException;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Date;
+
+import static com.auth0.jwt.algorithms.Algorithm.HMAC512;
+import static com.example.demo.security.SecurityConstants.EXPIRATION_TIME;
+import static com.example.demo.security.SecurityConstants.SECRET;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class VerifiedTokenCacheTest {
+
+    private VerifiedTokenCache verifiedTokenCache;
+
+    @Before
+    public void setUp() {
+        verifiedTokenCache = new VerifiedTokenCache(2);
+    }
+
+    @Test
+    public void repeated_token_is_verified_once() throws Exception {
+        String token = token("test", System.currentTimeMillis() + EXPIRATION_TIME);
+
+        assertEquals("test", verifiedTokenCache.getSubject(token));
+        assertEquals("test", verifiedTokenCache.getSubject(token));
+        assertEquals("test", verifiedTokenCache.getSubject(token));
+
+        assertEquals(1, verifiedTokenCache.getMisses());
+        assertEquals(2, verifiedTokenCache.getHits());
+    }
+
+    @Test
+    public void cache_requests_and_verifications_are_metered() throws Exception {
+        SimpleMeterRegistry registry = new SimpleMeterRegistry();
+        verifiedTokenCache.bindTo(registry);
+        String token = token("test", System.currentTimeMillis() + EXPIRATION_TIME);
+
+        verifiedTokenCache.getSubject(token);
+        verifiedTokenCache.getSubject(token);
+
+        assertEquals(1.0, registry.get("security.token.cache.requests").tag("result", "hit").functionCounter().count(), 0.0);
+        assertEquals(1.0, registry.get("security.token.cache.requests").tag("result", "miss").functionCounter().count(), 0.0);
+        assertEquals(1, registry.get("security.jwt.verify").timer().count());
+    }
+
+    @Test
+    public void invalid_token_is_rejected_and_not_cached() throws Exception {
+        String token = JWT.create()
+                .withSubject("test")
+                .withExpiresAt(new Date(System.currentTimeMillis() + EXPIRATION_TIME))
+                .sign(HMAC512("notoursecretkey".getBytes()));
+
+        for (int i = 0; i < 2; i++) {
+            try {
+                verifiedTokenCache.getSubject(token);
+                fail("A token signed with another key must not be accepted");
+            } catch (JWTVerificationException expected) {
+                // expected
+            }
+        }
+        assertEquals(0, verifiedTokenCache.size());
+        assertEquals(2, verifiedTokenCache.getMisses());
+    }
+
+    @Test
+    public void expired_token_is_not_served_from_cache() throws Exception {
+        String token = token("test", System.currentTimeMillis() + 1_000);
+
+        assertEquals("test", verifiedTokenCache.getSubject(token));
+        Thread.sleep(2_100);
+        try {
+            verifiedTokenCache.getSubject(token);
+            fail("An expired token must not be accepted");
+        } catch (JWTVerificationException expected) {
+            // expected
+        }
+        assertEquals(0, verifiedTokenCache.getHits());
+        assertEquals(0, verifiedTokenCache.size());
+    }
+
+    @Test
+    public void cache_size_is_bounded() throws Exception {
+        long expiresAt = System.currentTimeMillis() + EXPIRATION_TIME;
+        for (int i = 0; i < 5; i++) {
+            assertEquals("user" + i, verifiedTokenCache.getSubject(token("user" + i, expiresAt)));
+        }
+        assertTrue(verifiedTokenCache.size() <= 2);
+    }
+
+    private static String token(String subject, long expiresAt) {
+        return JWT.create()
+                .withSubject(subject)
+                .withExpiresAt(new Date(expiresAt))
+                .sign(HMAC512(SECRET.getBytes()));
+    }
+}
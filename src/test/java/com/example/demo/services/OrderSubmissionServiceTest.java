@@ -0,0 +1,154 @@
+package com.example.demo.services;
+
+import com.example.demo.TestUtils;
+import com.example.demo.model.persistence.Cart;
+import com.example.demo.model.persistence.Item;
+import com.example.demo.model.persistence.OrderStatus;
+import com.example.demo.model.persistence.User;
+import com.example.demo.model.persistence.UserOrder;
+import com.example.demo.model.persistence.repositories.CartRepository;
+import com.example.demo.model.persistence.repositories.OrderRepository;
+import com.example.demo.security.UserPrincipal;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.math.BigDecimal;
+import java.util.Collections;
+import java.util.Optional;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class OrderSubmissionServiceTest {
+
+    private OrderSubmissionService orderSubmissionService;
+
+    private OrderRepository orderRepository = mock(OrderRepository.class);
+
+    private CartRepository cartRepository = mock(CartRepository.class);
+
+    private User user;
+
+    private UserPrincipal principal;
+
+    // A service with a single worker and room for a single queued order, the transactions run
+    // against a mocked transaction manager
+    @Before
+    public void setUp() {
+        orderSubmissionService = new OrderSubmissionService();
+        TestUtils.injectObjects(orderSubmissionService, "orderRepository", orderRepository);
+        TestUtils.injectObjects(orderSubmissionService, "cartRepository", cartRepository);
+        TestUtils.injectObjects(orderSubmissionService, "transactionTemplate",
+                new TransactionTemplate(mock(PlatformTransactionManager.class)));
+        TestUtils.injectObjects(orderSubmissionService, "threads", 1);
+        TestUtils.injectObjects(orderSubmissionService, "queueCapacity", 1);
+        orderSubmissionService.start();
+
+        when(orderRepository.save(any(UserOrder.class))).thenAnswer(invocation -> {
+            UserOrder order = invocation.getArgument(0);
+            if (order.getId() == null) {
+                order.setId(1L);
+            }
+            return order;
+        });
+
+        Item item = new Item();
+        item.setId(0L);
+        item.setName("testItem");
+        item.setPrice(new BigDecimal("2.99"));
+
+        user = new User();
+        user.setUsername("test");
+        Cart cart = new Cart();
+        cart.setUser(user);
+        cart.addItem(item, 2);
+        user.setCart(cart);
+        principal = new UserPrincipal(user.getId(), user.getUsername(), cart.getId());
+        when(cartRepository.findWithLineItemsById(any())).thenReturn(Optional.of(cart));
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        orderSubmissionService.stop();
+    }
+
+    @Test
+    public void submit_async_completes_order() throws Exception {
+        // The worker is held until the accepted order has been checked
+        CountDownLatch release = new CountDownLatch(1);
+        UserOrder[] stored = new UserOrder[1];
+        when(orderRepository.findByIdForUpdate(1L)).thenAnswer(invocation -> {
+            release.await();
+            return Optional.of(stored[0]);
+        });
+
+        UserOrder intent = orderSubmissionService.submitAsync(principal, null);
+        stored[0] = intent;
+        assertEquals(OrderStatus.PENDING, intent.getStatus());
+        assertTrue(intent.getItems().isEmpty());
+        assertTrue(intent.hasDeferredItems());
+
+        release.countDown();
+        orderSubmissionService.stop();
+
+        // Once the worker is done the order holds the cart line and is COMPLETED
+        assertEquals(OrderStatus.COMPLETED, intent.getStatus());
+        assertEquals(1, intent.getItems().size());
+        assertEquals(2, intent.getItems().get(0).getQuantity());
+        assertEquals(new BigDecimal("5.98"), intent.getTotal());
+        assertFalse(intent.hasDeferredItems());
+    }
+
+    @Test
+    public void pending_orders_are_completed_after_a_restart() throws Exception {
+        // The order was accepted, and the application stopped before a worker completed it
+        UserOrder pending = UserOrder.createFromCart(user.getCart());
+        pending.setId(1L);
+        pending.deferItems();
+        when(orderRepository.findIdsByStatus(OrderStatus.PENDING)).thenReturn(Collections.singletonList(1L));
+        when(orderRepository.findByIdForUpdate(1L)).thenReturn(Optional.of(pending));
+
+        orderSubmissionService.resumePendingOrders();
+        orderSubmissionService.stop();
+
+        assertEquals(OrderStatus.COMPLETED, pending.getStatus());
+        assertEquals(1, pending.getItems().size());
+        assertEquals(Long.valueOf(0L), pending.getItems().get(0).getItemId());
+        assertEquals(2, pending.getItems().get(0).getQuantity());
+        assertEquals(new BigDecimal("2.99"), pending.getItems().get(0).getUnitPrice());
+    }
+
+    @Test
+    public void submit_async_rejected_when_workers_are_saturated() throws Exception {
+        // The only worker is held on the first order, the second order fills the queue
+        CountDownLatch release = new CountDownLatch(1);
+        when(orderRepository.findByIdForUpdate(1L)).thenAnswer(invocation -> {
+            release.await();
+            return Optional.empty();
+        });
+        orderSubmissionService.submitAsync(principal, null);
+        orderSubmissionService.submitAsync(principal, null);
+
+        try {
+            orderSubmissionService.submitAsync(principal, null);
+            fail("Expected the third order to be rejected");
+        } catch (RejectedExecutionException e) {
+            // The rejected order is not left behind as PENDING
+            verify(orderRepository).deleteById(1L);
+        } finally {
+            release.countDown();
+        }
+    }
+
+}
@@ -0,0 +1,72 @@
+package com.example.demo.services;
+
+import com.example.demo.TestUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.security.crypto.bcrypt.BCryptPasswordEncoder;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.fail;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class PasswordHashingServiceTest {
+
+    private PasswordHashingService passwordHashingService;
+
+    private BCryptPasswordEncoder bCryptPasswordEncoder = mock(BCryptPasswordEncoder.class);
+
+    // A service with a single worker and room for a single queued password
+    @Before
+    public void setUp() {
+        passwordHashingService = new PasswordHashingService();
+        TestUtils.injectObjects(passwordHashingService, "bCryptPasswordEncoder", bCryptPasswordEncoder);
+        TestUtils.injectObjects(passwordHashingService, "threads", 1);
+        TestUtils.injectObjects(passwordHashingService, "queueCapacity", 1);
+        passwordHashingService.start();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        passwordHashingService.stop();
+    }
+
+    @Test
+    public void password_is_hashed_off_the_calling_thread() throws Exception {
+        String[] hashingThread = new String[1];
+        when(bCryptPasswordEncoder.encode("testPassword")).thenAnswer(invocation -> {
+            hashingThread[0] = Thread.currentThread().getName();
+            return "thisIsHashed";
+        });
+
+        assertEquals("thisIsHashed", passwordHashingService.encode("testPassword").get());
+        assertNotEquals(Thread.currentThread().getName(), hashingThread[0]);
+    }
+
+    @Test
+    public void hashing_rejected_when_queue_is_full() throws Exception {
+        // The only worker is held on the first password, the second one fills the queue
+        CountDownLatch release = new CountDownLatch(1);
+        when(bCryptPasswordEncoder.encode("testPassword")).thenAnswer(invocation -> {
+            release.await();
+            return "thisIsHashed";
+        });
+        passwordHashingService.encode("testPassword");
+        passwordHashingService.encode("testPassword");
+
+        try {
+            passwordHashingService.encode("testPassword");
+            fail("Expected the third password to be rejected");
+        } catch (RejectedExecutionException e) {
+            // expected
+        } finally {
+            release.countDown();
+        }
+    }
+
+}
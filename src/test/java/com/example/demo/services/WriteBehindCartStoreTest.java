@@ -0,0 +1,318 @@
+package com.example.demo.services;
+
+import com.example.demo.TestUtils;
+import com.example.demo.model.persistence.Cart;
+import com.example.demo.model.persistence.Item;
+import com.example.demo.model.persistence.repositories.CartRepository;
+import com.example.demo.model.persistence.repositories.ItemRepository;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.io.File;
+import java.math.BigDecimal;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyCollection;
+import static org.mockito.ArgumentMatchers.anyIterable;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class WriteBehindCartStoreTest {
+
+    @Rule
+    public TemporaryFolder journalDirectory = new TemporaryFolder();
+
+    private CartRepository cartRepository = mock(CartRepository.class);
+
+    private ItemRepository itemRepository = mock(ItemRepository.class);
+
+    // The carts as stored in the mocked database, a new Cart instance is read from it every time
+    private Map<Long, Cart> database = new HashMap<>();
+
+    private Item item;
+
+    private List<WriteBehindCartStore> stores = new ArrayList<>();
+
+    @Before
+    public void setUp() {
+        item = new Item();
+        item.setId(1L);
+        item.setName("Round Widget");
+        item.setPrice(new BigDecimal("2.99"));
+        for (long id = 1; id <= 3; id++) {
+            Cart cart = new Cart();
+            cart.setId(id);
+            database.put(id, cart);
+        }
+        when(cartRepository.findWithLineItemsById(anyLong()))
+                .thenAnswer(invocation -> Optional.ofNullable(database.get(invocation.<Long>getArgument(0))).map(Cart::copy));
+        when(cartRepository.findAllByIdForUpdate(anyCollection())).thenAnswer(invocation -> {
+            List<Cart> carts = new ArrayList<>();
+            for (Long id : invocation.<Collection<Long>>getArgument(0)) {
+                carts.add(database.get(id));
+            }
+            return carts;
+        });
+        when(cartRepository.saveAll(anyIterable())).thenAnswer(invocation -> invocation.getArgument(0));
+        when(itemRepository.findAllById(any())).thenReturn(Collections.singletonList(item));
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        for (WriteBehindCartStore store : stores) {
+            store.stop();
+        }
+    }
+
+    @Test
+    public void changes_are_stored_in_batches_when_flushed() throws Exception {
+        WriteBehindCartStore store = start();
+        for (long id = 1; id <= 3; id++) {
+            store.update(id, cart -> cart.addItem(item, 2));
+        }
+        Cart cart = store.update(1L, c -> c.removeItem(item, 1));
+
+        assertEquals(1, cart.getLineItem(1L).getQuantity());
+        assertEquals(3, store.getDirtyCount());
+        verify(cartRepository, never()).saveAll(anyIterable());
+
+        store.flush();
+
+        assertEquals(0, store.getDirtyCount());
+        verify(cartRepository, times(2)).saveAll(anyIterable());
+        assertEquals(1, database.get(1L).getLineItem(1L).getQuantity());
+        assertEquals(new BigDecimal("2.99"), database.get(1L).getTotal());
+        assertEquals(2, database.get(3L).getLineItem(1L).getQuantity());
+    }
+
+    @Test
+    public void returned_cart_is_not_changed_by_later_changes() throws Exception {
+        WriteBehindCartStore store = start();
+        Cart first = store.update(1L, cart -> cart.addItem(item, 2));
+        Cart second = store.update(1L, cart -> cart.removeItem(item, 2));
+
+        assertEquals(2, first.getLineItem(1L).getQuantity());
+        assertNull(second.getLineItem(1L));
+    }
+
+    @Test
+    public void single_cart_is_stored_before_an_order() throws Exception {
+        WriteBehindCartStore store = start();
+        store.update(1L, cart -> cart.addItem(item, 2));
+        store.update(2L, cart -> cart.addItem(item, 3));
+
+        store.flush(1L);
+
+        assertEquals(2, database.get(1L).getLineItem(1L).getQuantity());
+        assertNull(database.get(2L).getLineItem(1L));
+        assertEquals(1, store.getDirtyCount());
+    }
+
+    @Test
+    public void single_cart_flush_does_not_wait_for_a_periodic_flush() throws Exception {
+        WriteBehindCartStore store = start();
+        TestUtils.injectObjects(store, "batchSize", 1);
+        for (int quantity = 1; quantity <= 3; quantity++) {
+            int added = quantity;
+            store.update((long) quantity, cart -> cart.addItem(item, added));
+        }
+        // The periodic flush is held in the transaction of its first cart
+        CountDownLatch storing = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        List<Long> held = new ArrayList<>();
+        when(cartRepository.saveAll(anyIterable())).thenAnswer(invocation -> {
+            if (Thread.currentThread().getName().equals("periodic") && storing.getCount() > 0) {
+                for (Cart cart : invocation.<Iterable<Cart>>getArgument(0)) {
+                    held.add(cart.getId());
+                }
+                storing.countDown();
+                release.await();
+            }
+            return invocation.getArgument(0);
+        });
+        Thread periodic = new Thread(store::flush, "periodic");
+        periodic.start();
+        assertTrue(storing.await(10, TimeUnit.SECONDS));
+
+        // Another cart is stored before the periodic flush goes on
+        long other = held.contains(1L) ? 2L : 1L;
+        try {
+            CompletableFuture.runAsync(() -> store.flush(other)).get(10, TimeUnit.SECONDS);
+        } finally {
+            release.countDown();
+        }
+
+        assertEquals(other, database.get(other).getLineItem(1L).getQuantity());
+        periodic.join();
+        assertEquals(0, store.getDirtyCount());
+        assertEquals(3, database.get(3L).getLineItem(1L).getQuantity());
+    }
+
+    @Test
+    public void concurrent_changes_are_all_journaled() throws Exception {
+        // Changes of three carts are appended and forced by three threads at once
+        WriteBehindCartStore crashed = new WriteBehindCartStore();
+        inject(crashed);
+        TestUtils.injectObjects(crashed, "fsync", true);
+        crashed.start();
+        ExecutorService executor = Executors.newFixedThreadPool(3);
+        List<Future<?>> changes = new ArrayList<>();
+        for (long id = 1; id <= 3; id++) {
+            long cartId = id;
+            changes.add(executor.submit(() -> {
+                for (int i = 0; i < 50; i++) {
+                    crashed.update(cartId, cart -> cart.addItem(item, 1));
+                }
+            }));
+        }
+        for (Future<?> change : changes) {
+            change.get(30, TimeUnit.SECONDS);
+        }
+        executor.shutdown();
+
+        restartFromJournal(crashed);
+
+        for (long id = 1; id <= 3; id++) {
+            assertEquals(50, database.get(id).getLineItem(1L).getQuantity());
+        }
+    }
+
+    @Test
+    public void journaled_changes_are_stored_at_the_next_start() throws Exception {
+        // The first store is not stopped before the next one starts, as if the application had crashed
+        WriteBehindCartStore crashed = new WriteBehindCartStore();
+        inject(crashed);
+        crashed.start();
+        crashed.update(1L, cart -> cart.addItem(item, 2));
+        crashed.update(2L, cart -> cart.addItem(item, 5));
+        crashed.update(1L, cart -> cart.addItem(item, 1));
+        assertNull(database.get(1L).getLineItem(1L));
+
+        restartFromJournal(crashed);
+
+        assertEquals(3, database.get(1L).getLineItem(1L).getQuantity());
+        assertEquals(5, database.get(2L).getLineItem(1L).getQuantity());
+    }
+
+    @Test
+    public void lines_keep_their_price_when_stored_after_a_price_change() throws Exception {
+        WriteBehindCartStore store = start();
+        Cart answered = store.update(1L, cart -> cart.addItem(item, 2));
+        item.setPrice(new BigDecimal("3.49"));
+
+        store.flush();
+
+        assertEquals(new BigDecimal("2.99"), database.get(1L).getLineItem(1L).getUnitPrice());
+        assertEquals(answered.getTotal(), database.get(1L).getTotal());
+    }
+
+    @Test
+    public void journaled_lines_keep_their_price_after_a_price_change() throws Exception {
+        WriteBehindCartStore crashed = new WriteBehindCartStore();
+        inject(crashed);
+        crashed.start();
+        Cart answered = crashed.update(1L, cart -> cart.addItem(item, 2));
+        item.setPrice(new BigDecimal("3.49"));
+
+        restartFromJournal(crashed);
+
+        assertEquals(new BigDecimal("2.99"), database.get(1L).getLineItem(1L).getUnitPrice());
+        assertEquals(answered.getTotal(), database.get(1L).getTotal());
+    }
+
+    @Test
+    public void changes_are_rejected_once_stopping() throws Exception {
+        WriteBehindCartStore store = start();
+        store.update(1L, cart -> cart.addItem(item, 2));
+        store.stop();
+        stores.remove(store);
+
+        try {
+            store.update(1L, cart -> cart.addItem(item, 1));
+            fail("Expected the change to be rejected");
+        } catch (RejectedExecutionException e) {
+            // Nothing was changed after the carts were stored at the stop
+        }
+        assertEquals(2, database.get(1L).getLineItem(1L).getQuantity());
+    }
+
+    @Test
+    public void stored_changes_are_not_replayed() throws Exception {
+        WriteBehindCartStore store = start();
+        store.update(1L, cart -> cart.addItem(item, 2));
+        store.flush();
+        verify(cartRepository, times(1)).saveAll(anyIterable());
+        store.stop();
+        stores.remove(store);
+
+        start();
+
+        verify(cartRepository, times(1)).saveAll(anyIterable());
+    }
+
+    // A store with batches of 2 carts that only flushes when told to, its transactions run against a
+    // mocked transaction manager
+    private WriteBehindCartStore start() throws Exception {
+        WriteBehindCartStore store = new WriteBehindCartStore();
+        inject(store);
+        store.start();
+        stores.add(store);
+        return store;
+    }
+
+    // The store started after a crash of the store of the journal directory. The crashed one is not
+    // stopped before the test is done, it still holds the directory's lock, so the new one starts on a
+    // copy of the segments.
+    private WriteBehindCartStore restartFromJournal(WriteBehindCartStore crashed) throws Exception {
+        File restarted = journalDirectory.newFolder();
+        for (File segment : journalDirectory.getRoot().listFiles((directory, name) -> name.endsWith(".log"))) {
+            Files.copy(segment.toPath(), restarted.toPath().resolve(segment.getName()));
+        }
+        WriteBehindCartStore store = new WriteBehindCartStore();
+        inject(store);
+        TestUtils.injectObjects(store, "journalDirectory", restarted.getPath());
+        store.start();
+        stores.add(store);
+        stores.add(crashed);
+        return store;
+    }
+
+    private void inject(WriteBehindCartStore store) {
+        TestUtils.injectObjects(store, "cartRepository", cartRepository);
+        TestUtils.injectObjects(store, "itemRepository", itemRepository);
+        TestUtils.injectObjects(store, "transactionTemplate", new TransactionTemplate(mock(PlatformTransactionManager.class)));
+        TestUtils.injectObjects(store, "journalDirectory", journalDirectory.getRoot().getPath());
+        TestUtils.injectObjects(store, "fsync", false);
+        TestUtils.injectObjects(store, "flushInterval", 3600000L);
+        TestUtils.injectObjects(store, "batchSize", 2);
+        TestUtils.injectObjects(store, "idleEviction", 60000L);
+    }
+}
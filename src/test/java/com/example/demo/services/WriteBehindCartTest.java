@@ -0,0 +1,201 @@
+package com.example.demo.services;
+
+import com.example.demo.controllers.CartController;
+import com.example.demo.controllers.OrderController;
+import com.example.demo.model.persistence.Cart;
+import com.example.demo.model.persistence.CartItem;
+import com.example.demo.model.persistence.User;
+import com.example.demo.model.persistence.repositories.CartRepository;
+import com.example.demo.model.persistence.repositories.ItemRepository;
+import com.example.demo.model.persistence.repositories.UserRepository;
+import com.example.demo.model.requests.ModifyCartRequest;
+import com.example.demo.model.responses.CartSummary;
+import com.example.demo.model.responses.LineSummary;
+import com.example.demo.model.responses.OrderSummary;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.http.ResponseEntity;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.context.junit4.SpringRunner;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+// The cart endpoints with cart.write-behind.enabled=true, against the application's database. Carts
+// are read detached, changed in memory and only stored by the flushes the tests make.
+@RunWith(SpringRunner.class)
+@SpringBootTest(properties = {
+        "cart.write-behind.enabled=true",
+        "cart.write-behind.journal-dir=target/cart-journal-${random.uuid}",
+        "cart.write-behind.flush-interval-ms=3600000",
+        "cart.write-behind.batch-size=2"
+})
+public class WriteBehindCartTest {
+
+    private static final int THREADS = 4;
+
+    private static final int ADDITIONS_PER_THREAD = 20;
+
+    @Autowired
+    private CartController cartController;
+
+    @Autowired
+    private OrderController orderController;
+
+    @Autowired
+    private WriteBehindCartStore writeBehindCartStore;
+
+    @Autowired
+    private UserRepository userRepository;
+
+    @Autowired
+    private CartRepository cartRepository;
+
+    @Autowired
+    private ItemRepository itemRepository;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Autowired
+    private TransactionTemplate transactionTemplate;
+
+    @Test
+    public void concurrent_changes_are_stored_by_a_flush() throws Exception {
+        // Three carts, stored in two batches
+        List<User> users = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            users.add(createUser());
+        }
+        CountDownLatch start = new CountDownLatch(1);
+        ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+        List<Future<?>> futures = new ArrayList<>();
+        for (int t = 0; t < THREADS; t++) {
+            futures.add(executor.submit(() -> {
+                start.await();
+                for (int i = 0; i < ADDITIONS_PER_THREAD; i++) {
+                    for (User user : users) {
+                        assertEquals(200, addToCart(user, 1 + i % 2, 1).getStatusCodeValue());
+                    }
+                }
+                return null;
+            }));
+        }
+        start.countDown();
+        for (Future<?> future : futures) {
+            future.get(2, TimeUnit.MINUTES);
+        }
+        executor.shutdown();
+        assertEquals(0, countLines(users.get(0)));
+
+        writeBehindCartStore.flush();
+
+        assertEquals(0, writeBehindCartStore.getDirtyCount());
+        for (User user : users) {
+            Cart cart = loadCart(user);
+            CartItem first = cart.getLineItem(1L);
+            CartItem second = cart.getLineItem(2L);
+            assertEquals(THREADS * ADDITIONS_PER_THREAD / 2, first.getQuantity());
+            assertEquals(THREADS * ADDITIONS_PER_THREAD / 2, second.getQuantity());
+            BigDecimal expectedTotal = first.getUnitPrice().add(second.getUnitPrice())
+                    .multiply(BigDecimal.valueOf(THREADS * ADDITIONS_PER_THREAD / 2));
+            assertEquals(0, expectedTotal.compareTo(cart.getTotal()));
+        }
+    }
+
+    @Test
+    public void removed_lines_are_deleted_when_stored() {
+        // A cart that already has stored lines when it is first read into memory
+        User user = createUser();
+        transactionTemplate.execute(status -> {
+            Cart cart = cartRepository.findById(user.getCart().getId()).get();
+            cart.addItem(itemRepository.findById(1L).get(), 2);
+            cart.addItem(itemRepository.findById(2L).get(), 1);
+            return cartRepository.save(cart);
+        });
+
+        ResponseEntity<CartSummary> response = removeFromCart(user, 1, 2);
+
+        assertEquals(200, response.getStatusCodeValue());
+        assertEquals(1, response.getBody().getItems().size());
+        assertEquals(2, countLines(user));
+
+        writeBehindCartStore.flush();
+
+        assertEquals(1, countLines(user));
+        Cart cart = loadCart(user);
+        assertNull(cart.getLineItem(1L));
+        assertEquals(1, cart.getLineItem(2L).getQuantity());
+        assertEquals(0, cart.getLineItem(2L).getUnitPrice().compareTo(cart.getTotal()));
+    }
+
+    @Test
+    public void order_is_made_from_the_changes_of_its_cart() {
+        User user = createUser();
+        User other = createUser();
+        addToCart(user, 1, 3);
+        addToCart(other, 2, 1);
+
+        ResponseEntity<OrderSummary> response = orderController.submit(user.getUsername(), null, null);
+
+        assertEquals(200, response.getStatusCodeValue());
+        List<LineSummary> lines = response.getBody().getItems();
+        assertEquals(1, lines.size());
+        assertEquals(3, lines.get(0).getQuantity());
+        assertEquals(0, lines.get(0).getUnitPrice().multiply(BigDecimal.valueOf(3)).compareTo(response.getBody().getTotal()));
+        // Only the cart of the order was stored
+        assertEquals(1, countLines(user));
+        assertEquals(0, countLines(other));
+    }
+
+    private User createUser() {
+        return transactionTemplate.execute(status -> {
+            Cart cart = cartRepository.save(new Cart());
+            User created = new User();
+            // Unique, the test also runs a second time in TestSuite against the same database
+            created.setUsername("write-behind-" + UUID.randomUUID());
+            created.setPassword("unused");
+            created.setCart(cart);
+            return userRepository.save(created);
+        });
+    }
+
+    private ResponseEntity<CartSummary> addToCart(User user, long itemId, int quantity) {
+        return cartController.addTocart(request(user, itemId, quantity), null);
+    }
+
+    private ResponseEntity<CartSummary> removeFromCart(User user, long itemId, int quantity) {
+        return cartController.removeFromcart(request(user, itemId, quantity), null);
+    }
+
+    private static ModifyCartRequest request(User user, long itemId, int quantity) {
+        ModifyCartRequest request = new ModifyCartRequest();
+        request.setUsername(user.getUsername());
+        request.setItemId(itemId);
+        request.setQuantity(quantity);
+        return request;
+    }
+
+    // The cart as it is stored, with its lines
+    private Cart loadCart(User user) {
+        return cartRepository.findWithLineItemsById(user.getCart().getId()).get();
+    }
+
+    private int countLines(User user) {
+        return jdbcTemplate.queryForObject("select count(*) from cart_item where cart_id = ?", Integer.class,
+                user.getCart().getId());
+    }
+}